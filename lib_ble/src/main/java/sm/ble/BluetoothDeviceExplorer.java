@@ -3,73 +3,65 @@ package sm.ble;
 import android.annotation.SuppressLint;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.le.BluetoothLeScanner;
-import android.bluetooth.le.ScanCallback;
-import android.bluetooth.le.ScanFilter;
 import android.bluetooth.le.ScanResult;
-import android.bluetooth.le.ScanSettings;
 import android.os.Handler;
 import android.os.Looper;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import sm.peripheral.Logger;
 import sm.peripheral.PeripheralType;
 
 public class BluetoothDeviceExplorer {
     private final BluetoothAdapter bluetooth = BluetoothAdapter.getDefaultAdapter();
-    private final List<PeripheralType> targetPeripherals = new ArrayList<>();
+    private final BluetoothScanner bluetoothScanner = BluetoothScanner.getInstance();
+    private final List<PeripheralType> targetPeripherals = new CopyOnWriteArrayList<>();
     private ExploreDeviceCallback exploreDeviceCallback;
-    private BluetoothLeScanCallback bluetoothLeScanCallback;
+    private BluetoothScanOptions scanOptions = new BluetoothScanOptions();
+    private volatile boolean exploring;
     private final Handler handler = new Handler(Looper.getMainLooper());
-    private BluetoothLeScanner bluetoothLeScanner;
 
     public void startExploreDevice(List<PeripheralType> targetPeripherals, ExploreDeviceCallback exploreDeviceCallback) {
+        startExploreDevice(targetPeripherals, new BluetoothScanOptions(), exploreDeviceCallback);
+    }
+
+    public void startExploreDevice(List<PeripheralType> targetPeripherals, BluetoothScanOptions scanOptions, ExploreDeviceCallback exploreDeviceCallback) {
+        this.scanOptions = new BluetoothScanOptions(scanOptions);
         this.targetPeripherals.clear();
         this.targetPeripherals.addAll(targetPeripherals);
         this.exploreDeviceCallback = exploreDeviceCallback;
-        stopExploreDevice();
-        exploreDevice();
+        if (isCanceledExploreDevice()) {
+            exploreDevice();
+        } else {
+            Logger.d("BluetoothDeviceExplorer: explore targets changed, targetPeripherals is " + targetPeripherals + ", explorer is " + this);
+            handler.removeCallbacksAndMessages(null);
+            bluetoothScanner.onTargetsChanged();
+        }
     }
 
-    @SuppressLint("MissingPermission")
     private void exploreDevice() {
         if (!isCanceledExploreDevice()) return;
         Logger.d("BluetoothDeviceExplorer: explore start, targetPeripherals is " + targetPeripherals + ", explorer is " + this);
-
-        bluetoothLeScanCallback = new BluetoothLeScanCallback();
-        if (getBluetoothLeScanner() != null && bluetooth.isEnabled()) {
-            List<ScanFilter> scanFilters = null;
-/*            scanFilters = new ArrayList<>(targetPeripherals.size());
-            for (PeripheralType peripheralType : targetPeripherals) {
-                scanFilters.add(new ScanFilter.Builder().setDeviceName(peripheralType.getName()).setDeviceAddress(peripheralType.getAddress()).build());
-            }*/
-            getBluetoothLeScanner().startScan(scanFilters, new ScanSettings.Builder().build(), bluetoothLeScanCallback);
-        }
-        //loopExploreDevice();
+        exploring = true;
+        bluetoothScanner.register(this);
     }
 
     public void retryExploreDevice() {
         if (isCanceledExploreDevice()) return;
-        stopExploreDevice();
-        exploreDevice();
+        bluetoothScanner.restart();
     }
 
-    @SuppressLint("MissingPermission")
     public void stopExploreDevice() {
         if (isCanceledExploreDevice()) return;
         Logger.d("BluetoothDeviceExplorer: explore stop, targetPeripherals is " + targetPeripherals + ", explorer is " + this);
-
-        if (getBluetoothLeScanner() != null && bluetooth.isEnabled()) {
-            getBluetoothLeScanner().stopScan(bluetoothLeScanCallback);
-        }
-        bluetoothLeScanCallback = null;
+        exploring = false;
+        bluetoothScanner.unregister(this);
         handler.removeCallbacksAndMessages(null);
     }
 
     public boolean isCanceledExploreDevice() {
-        return bluetoothLeScanCallback == null;
+        return !exploring;
     }
 
     public boolean equalsTargets(List<PeripheralType> targetPeripherals) {
@@ -77,57 +69,64 @@ public class BluetoothDeviceExplorer {
     }
 
     public void removeTarget(PeripheralType targetPeripheral) {
-        targetPeripherals.remove(targetPeripheral);
+        if (!targetPeripherals.remove(targetPeripheral)) return;
         if (targetPeripherals.isEmpty()) stopExploreDevice();
+        else if (!isCanceledExploreDevice()) bluetoothScanner.onTargetsChanged();
     }
 
-    private BluetoothLeScanner getBluetoothLeScanner() {
-        if (bluetoothLeScanner == null) {
-            bluetoothLeScanner = bluetooth.getBluetoothLeScanner();
-        }
-        if (bluetoothLeScanner == null) {
-            Logger.w("BluetoothDeviceExplorer: BluetoothLeScanner null");
-        }
-        return bluetoothLeScanner;
+    List<PeripheralType> getTargets() {
+        return targetPeripherals;
     }
 
-    private void loopExploreDevice() {
-        handler.postDelayed(this::retryExploreDevice, 10 * 1000);
+    BluetoothScanOptions getScanOptions() {
+        return scanOptions;
     }
 
-    private class BluetoothLeScanCallback extends ScanCallback {
-
-        @SuppressLint("MissingPermission")
-        @Override
-        public void onScanResult(int callbackType, ScanResult result) {
-            super.onScanResult(callbackType, result);
-            final BluetoothDevice bluetoothDevice = result.getDevice();
-            final String deviceName = bluetoothDevice.getName();
-            boolean hit = false;
-            for (PeripheralType targetPeripheral : targetPeripherals) {
-                hit = targetPeripheral.include(bluetoothDevice);
-                if (hit) break;
-            }
-            if (!isCanceledExploreDevice()
-                    && hit
-                    && deviceName != null
-                    && bluetooth.isEnabled()
-            ) {
-                handler.post(() -> {
-                    if (isCanceledExploreDevice()) return;
-                    Logger.d("BluetoothDeviceExplorer: explore result, deviceName is " + deviceName + ", deviceAddress is " + bluetoothDevice.getAddress() + ", explorer is " + BluetoothDeviceExplorer.this);
-                    stopExploreDevice();
-                    exploreDeviceCallback.onDeviceExplored(bluetoothDevice);
-                });
+    void onScanResult(ScanResult result) {
+        if (isCanceledExploreDevice()) return;
+        BluetoothDevice bluetoothDevice = match(result);
+        if (bluetoothDevice != null) onDeviceExplored(bluetoothDevice);
+    }
+
+    /**
+     * 批量扫描结果，整批只投递一次
+     */
+    void onBatchScanResults(List<ScanResult> results) {
+        if (isCanceledExploreDevice()) return;
+        for (ScanResult result : results) {
+            BluetoothDevice bluetoothDevice = match(result);
+            if (bluetoothDevice != null) {
+                onDeviceExplored(bluetoothDevice);
+                return;
             }
         }
+    }
 
-        @Override
-        public void onScanFailed(int errorCode) {
-            super.onScanFailed(errorCode);
-            Logger.d("BluetoothDeviceExplorer: explore fail, targetPeripherals is " + targetPeripherals + ", errorCode is " + errorCode + ", explorer is " + BluetoothDeviceExplorer.this);
-            loopExploreDevice();
+    @SuppressLint("MissingPermission")
+    private BluetoothDevice match(ScanResult result) {
+        final BluetoothDevice bluetoothDevice = result.getDevice();
+        boolean hit = false;
+        for (PeripheralType targetPeripheral : targetPeripherals) {
+            hit = targetPeripheral.include(result);
+            if (hit) break;
+        }
+        if (hit
+                && bluetoothDevice.getName() != null
+                && bluetooth.isEnabled()
+        ) {
+            return bluetoothDevice;
         }
+        return null;
+    }
+
+    @SuppressLint("MissingPermission")
+    private void onDeviceExplored(BluetoothDevice bluetoothDevice) {
+        handler.post(() -> {
+            if (isCanceledExploreDevice()) return;
+            Logger.d("BluetoothDeviceExplorer: explore result, deviceName is " + bluetoothDevice.getName() + ", deviceAddress is " + bluetoothDevice.getAddress() + ", explorer is " + BluetoothDeviceExplorer.this);
+            stopExploreDevice();
+            exploreDeviceCallback.onDeviceExplored(bluetoothDevice);
+        });
     }
 
     public interface ExploreDeviceCallback {
@@ -0,0 +1,86 @@
+package sm.ble;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+import sm.peripheral.MainThreadDelivery;
+
+/**
+ * 设备事件线程。连接、断开、应答等事件按设备地址哈希分配到固定的事件线程，同一设备的事件保持顺序；
+ * 线程数为0(默认)时所有事件在主线程回调
+ *
+ * @see #setShardCount(int)
+ * @see MainThreadDelivery
+ */
+public final class BluetoothEventLoops {
+    private static final BluetoothEventLoops instance = new BluetoothEventLoops();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile Handler[] shards = new Handler[0];
+    private volatile boolean started;
+
+    private BluetoothEventLoops() {
+    }
+
+    public static BluetoothEventLoops getInstance() {
+        return instance;
+    }
+
+    /**
+     * 设置事件线程数，须在连接设备前调用
+     *
+     * @param count 线程数，为0时在主线程回调
+     */
+    public synchronized void setShardCount(int count) {
+        if (count < 0) throw new IllegalArgumentException("count must not be negative");
+        if (count == shards.length) return;
+        if (started) throw new IllegalStateException("event loops already in use");
+        for (Handler shard : this.shards) {
+            shard.getLooper().quitSafely();
+        }
+        Handler[] shards = new Handler[count];
+        for (int i = 0; i < count; i++) {
+            HandlerThread thread = new HandlerThread("BluetoothEventLoop-" + i);
+            thread.start();
+            shards[i] = new Handler(thread.getLooper());
+        }
+        this.shards = shards;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public Handler getMainHandler() {
+        return mainHandler;
+    }
+
+    /**
+     * 获取设备所属的事件线程
+     *
+     * @param address 设备地址
+     * @return Handler，线程数为0时为主线程
+     */
+    public Handler getHandler(String address) {
+        Handler[] shards = this.shards;
+        if (shards.length == 0) return mainHandler;
+        if (!started) markStarted();
+        int hash = address == null ? 0 : address.hashCode();
+        return shards[(hash & Integer.MAX_VALUE) % shards.length];
+    }
+
+    /**
+     * 获取回调的执行线程
+     *
+     * @param address 设备地址
+     * @param target  回调，实现{@link MainThreadDelivery}时在主线程执行
+     * @return Handler
+     */
+    public Handler getHandler(String address, Object target) {
+        return target instanceof MainThreadDelivery ? mainHandler : getHandler(address);
+    }
+
+    private synchronized void markStarted() {
+        started = true;
+    }
+}
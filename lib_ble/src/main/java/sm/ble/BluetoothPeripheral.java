@@ -9,22 +9,41 @@ import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothProfile;
 import android.content.Context;
-import android.os.Handler;
-import android.os.Looper;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.UUID;
 
+import sm.peripheral.AttributeCache;
+import sm.peripheral.BufferPool;
 import sm.peripheral.DataPacket;
+import sm.peripheral.FrameAssembler;
 import sm.peripheral.Logger;
 import sm.peripheral.Peripheral;
+import sm.peripheral.PeripheralController;
+import sm.peripheral.PeripheralScheduler;
+import sm.peripheral.PooledBuffer;
 
 public abstract class BluetoothPeripheral extends Peripheral {
+    /**
+     * 默认GATT操作超时时间
+     */
+    public static final long DEFAULT_OPERATION_TIMEOUT = 3000;
+    private static final int STREAM_WINDOW = 4;
+    private static final UUID CLIENT_CHARACTERISTIC_CONFIG = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
     private final BluetoothDevice bluetoothDevice;
     private final Context context;
     protected ConnectCallback callback;
     private BluetoothBleCallback bluetoothBleCallback;
-    private final Handler handler = new Handler(Looper.getMainLooper());
     private volatile int connectState = BluetoothProfile.STATE_DISCONNECTED;
+    private int preferredMtu = DEFAULT_MTU;
+    private long operationTimeoutMillis = DEFAULT_OPERATION_TIMEOUT;
+    private volatile BufferPool bufferPool = BufferPool.getInstance();
+    private final AttributeCache attributeCache = new AttributeCache();
 
     @SuppressLint("MissingPermission")
     public BluetoothPeripheral(Context context, BluetoothDevice bluetoothDevice) {
@@ -49,8 +68,178 @@ public abstract class BluetoothPeripheral extends Peripheral {
         connectState = BluetoothProfile.STATE_CONNECTING;
     }
 
+    /**
+     * 设置期望的MTU，在发现服务后、连接成功前协商。下次连接时生效
+     *
+     * @param mtu MTU，23~517，为{@link #DEFAULT_MTU}时不协商
+     */
+    public void setPreferredMtu(int mtu) {
+        if (mtu < DEFAULT_MTU || mtu > 517) throw new IllegalArgumentException("mtu must be 23~517");
+        this.preferredMtu = mtu;
+    }
+
+    /**
+     * 设置GATT操作的超时时间，超时后执行下一个操作
+     *
+     * @param timeoutMillis 超时时间
+     */
+    public void setOperationTimeout(long timeoutMillis) {
+        if (timeoutMillis <= 0) throw new IllegalArgumentException("timeoutMillis must be greater than 0");
+        this.operationTimeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * 读取信号强度
+     *
+     * @param callback 结果，失败时为null
+     */
+    public void readRssi(PeripheralController.PeripheralCallback<Integer> callback) {
+        GattOperationQueue operationQueue = getOperationQueue();
+        if (operationQueue == null) {
+            post(callback, () -> callback.onCall(null));
+            return;
+        }
+        operationQueue.enqueue(GattOperation.readRssi(operation -> {
+            Integer rssi = operation.isSuccess() ? operation.intValue : null;
+            post(callback, () -> callback.onCall(rssi));
+        }), operationTimeoutMillis);
+    }
+
+    /**
+     * 读取特征值，不缓存
+     *
+     * @param characteristicUuid 特征UUID，优先在设备服务中查找，其次在其他服务(如设备信息服务)中查找
+     * @param callback           结果，失败时为null
+     */
+    public void read(UUID characteristicUuid, PeripheralController.PeripheralCallback<byte[]> callback) {
+        read(characteristicUuid, 0, callback);
+    }
+
+    /**
+     * 读取特征值。有效期内重复读取直接返回缓存，断开连接时缓存失效
+     *
+     * @param characteristicUuid 特征UUID
+     * @param ttlMillis          缓存有效期，不大于0时不缓存
+     * @param callback           结果，失败时为null
+     */
+    public void read(UUID characteristicUuid, long ttlMillis, PeripheralController.PeripheralCallback<byte[]> callback) {
+        byte[] cached = ttlMillis > 0 ? attributeCache.get(characteristicUuid) : null;
+        if (cached != null) {
+            post(callback, () -> callback.onCall(cached));
+            return;
+        }
+        BluetoothBleCallback bluetoothBleCallback = connectState == BluetoothProfile.STATE_CONNECTED ? this.bluetoothBleCallback : null;
+        GattOperationQueue operationQueue = bluetoothBleCallback == null ? null : bluetoothBleCallback.operationQueue;
+        BluetoothGattCharacteristic characteristic = operationQueue == null ? null : bluetoothBleCallback.findCharacteristic(characteristicUuid);
+        if (characteristic == null) {
+            post(callback, () -> callback.onCall(null));
+            return;
+        }
+        operationQueue.enqueue(GattOperation.read(characteristic, operation -> {
+            byte[] value = operation.isSuccess() ? operation.value : null;
+            if (value != null) attributeCache.put(characteristicUuid, value, ttlMillis);
+            post(callback, () -> callback.onCall(value));
+        }), operationTimeoutMillis);
+    }
+
+    /**
+     * 获取特征值缓存
+     *
+     * @return 特征值缓存
+     */
+    public AttributeCache getAttributeCache() {
+        return attributeCache;
+    }
+
+    /**
+     * 以无应答写入的方式流式写入数据，用于固件升级等大数据量传输。回调在设备所属的事件线程执行
+     *
+     * @param data     数据，从position写到limit
+     * @param callback 回调
+     * @return 写入，可取消、查询速率
+     */
+    public BluetoothStreamWriter stream(ByteBuffer data, BluetoothStreamWriter.Callback callback) {
+        BluetoothStreamWriter writer = new BluetoothStreamWriter(new GattTransport(), data, STREAM_WINDOW, new DispatchingStreamCallback(callback));
+        writer.start();
+        return writer;
+    }
+
+    /**
+     * 以无应答写入的方式流式写入数据，输入流在单独的读取线程中读取，不阻塞GATT回调线程。回调在设备所属的事件线程执行
+     *
+     * @param in       输入流，读完后关闭
+     * @param callback 回调
+     * @return 写入，可取消、查询速率
+     */
+    public BluetoothStreamWriter stream(InputStream in, BluetoothStreamWriter.Callback callback) {
+        BluetoothStreamWriter writer = new BluetoothStreamWriter(new GattTransport(), in, -1, STREAM_WINDOW, new DispatchingStreamCallback(callback));
+        writer.start();
+        return writer;
+    }
+
+    private GattOperationQueue getOperationQueue() {
+        if (connectState != BluetoothProfile.STATE_CONNECTED) return null;
+        BluetoothBleCallback bluetoothBleCallback = this.bluetoothBleCallback;
+        return bluetoothBleCallback == null ? null : bluetoothBleCallback.operationQueue;
+    }
+
+    private class GattTransport implements BluetoothStreamWriter.Transport {
+        private final GattOperationQueue operationQueue;
+        private final BluetoothGattCharacteristic characteristic;
+
+        GattTransport() {
+            BluetoothBleCallback bluetoothBleCallback = BluetoothPeripheral.this.bluetoothBleCallback;
+            this.operationQueue = getOperationQueue();
+            this.characteristic = bluetoothBleCallback == null ? null : bluetoothBleCallback.writeCharacteristic;
+        }
+
+        @Override
+        public int getMaxPayloadSize() {
+            return BluetoothPeripheral.this.getMaxPayloadSize();
+        }
+
+        @Override
+        public void write(byte[] chunk, BluetoothStreamWriter.Completion completion) {
+            if (operationQueue == null || characteristic == null) {
+                completion.onComplete(false);
+                return;
+            }
+            operationQueue.enqueue(GattOperation.write(characteristic, chunk, BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE,
+                    operation -> completion.onComplete(operation.isSuccess())), operationTimeoutMillis);
+        }
+    }
+
+    private class DispatchingStreamCallback implements BluetoothStreamWriter.Callback {
+        private final BluetoothStreamWriter.Callback callback;
+
+        DispatchingStreamCallback(BluetoothStreamWriter.Callback callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void onProgress(BluetoothStreamWriter writer, long bytesWritten, long total, double bytesPerSecond) {
+            post(callback, () -> callback.onProgress(writer, bytesWritten, total, bytesPerSecond));
+        }
+
+        @Override
+        public void onComplete(BluetoothStreamWriter writer, long bytesWritten, double bytesPerSecond) {
+            post(callback, () -> callback.onComplete(writer, bytesWritten, bytesPerSecond));
+        }
+
+        @Override
+        public void onError(BluetoothStreamWriter writer, IOException error) {
+            post(callback, () -> callback.onError(writer, error));
+        }
+    }
+
     private class BluetoothBleCallback extends BluetoothGattCallback {
+        private final UUID serviceUuid = UUID.fromString(getServiceUuid());
+        private final UUID writeCharacteristicUuid = UUID.fromString(getWriteCharacteristicUuid());
+        private final UUID notifyCharacteristicUuid = UUID.fromString(getNotifyCharacteristicUuid());
         private BluetoothGatt gatt;
+        private volatile GattOperationQueue operationQueue;
+        private volatile BluetoothGattCharacteristic writeCharacteristic;
+        private final Map<UUID, BluetoothGattCharacteristic> characteristics = new HashMap<>();
 
         @SuppressLint("MissingPermission")
         @Override
@@ -59,6 +248,7 @@ public abstract class BluetoothPeripheral extends Peripheral {
             Logger.d("BluetoothPeripheral: gatt is " + gatt + ", status is " + status + ", newState is " + newState);
             this.gatt = gatt;
             if (newState == BluetoothGatt.STATE_CONNECTED) {
+                if (operationQueue == null) operationQueue = new GattOperationQueue(gatt, PeripheralScheduler.getInstance());
                 if (gatt.discoverServices()) return;
                 onConnectFailed();
             } else if (newState == BluetoothGatt.STATE_DISCONNECTED) {
@@ -72,25 +262,99 @@ public abstract class BluetoothPeripheral extends Peripheral {
         @Override
         public synchronized void onServicesDiscovered(BluetoothGatt gatt, int status) {
             super.onServicesDiscovered(gatt, status);
-            BluetoothGattService gattService = gatt.getService(UUID.fromString(getServiceUuid()));
+            BluetoothGattService gattService = gatt.getService(serviceUuid);
             if (gattService == null) {
+                onMissing("service " + serviceUuid);
+                return;
+            }
+            BluetoothGattCharacteristic writeCharacteristic = gattService.getCharacteristic(writeCharacteristicUuid);
+            if (writeCharacteristic == null) {
+                onMissing("write characteristic " + writeCharacteristicUuid);
+                return;
+            }
+            BluetoothGattCharacteristic notifyCharacteristic = gattService.getCharacteristic(notifyCharacteristicUuid);
+            BluetoothGattDescriptor gattDescriptor = notifyCharacteristic == null ? null : notifyCharacteristic.getDescriptor(CLIENT_CHARACTERISTIC_CONFIG);
+            if (gattDescriptor == null) {
+                onMissing("notify characteristic " + notifyCharacteristicUuid);
+                return;
+            }
+            this.writeCharacteristic = writeCharacteristic;
+            if (preferredMtu > DEFAULT_MTU) operationQueue.enqueue(GattOperation.requestMtu(preferredMtu, null), operationTimeoutMillis);
+            gatt.setCharacteristicNotification(notifyCharacteristic, true);
+            operationQueue.enqueue(GattOperation.writeDescriptor(gattDescriptor, BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE, this::onNotificationEnabled), operationTimeoutMillis);
+        }
+
+        private synchronized BluetoothGattCharacteristic findCharacteristic(UUID uuid) {
+            if (gatt == null) return null;
+            BluetoothGattCharacteristic characteristic = characteristics.get(uuid);
+            if (characteristic != null) return characteristic;
+            BluetoothGattService gattService = gatt.getService(serviceUuid);
+            if (gattService != null) characteristic = gattService.getCharacteristic(uuid);
+            if (characteristic == null) {
+                for (BluetoothGattService service : gatt.getServices()) {
+                    characteristic = service.getCharacteristic(uuid);
+                    if (characteristic != null) break;
+                }
+            }
+            if (characteristic == null) {
+                Logger.w("BluetoothPeripheral: characteristic " + uuid + " not found on " + address);
+                return null;
+            }
+            characteristics.put(uuid, characteristic);
+            return characteristic;
+        }
+
+        private void onMissing(String what) {
+            Logger.w("BluetoothPeripheral: " + what + " not found on " + address);
+            onConnectFailed();
+        }
+
+        private synchronized void onNotificationEnabled(GattOperation operation) {
+            if (operation.status == GattOperation.STATUS_CANCELLED) return;
+            if (operation.status == GattOperation.STATUS_TIMEOUT || operation.status == GattOperation.STATUS_NOT_STARTED) {
                 onConnectFailed();
-            } else {
-                BluetoothGattCharacteristic gattCharacteristic = gattService.getCharacteristic(UUID.fromString(BluetoothPeripheral.this.getNotifyCharacteristicUuid()));
-                gatt.setCharacteristicNotification(gattCharacteristic, true);
-                BluetoothGattDescriptor gattDescriptor = gattCharacteristic.getDescriptor(UUID.fromString("00002902-0000-1000-8000-00805f9b34fb"));
-                gattDescriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-                gatt.writeDescriptor(gattDescriptor);
+            } else if (connectState != BluetoothProfile.STATE_DISCONNECTED) {
+                connectState = BluetoothProfile.STATE_CONNECTED;
+                post(callback, () -> callback.onConnected(BluetoothPeripheral.this));
             }
         }
 
         @Override
-        public synchronized void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            super.onMtuChanged(gatt, mtu, status);
+            Logger.d("BluetoothPeripheral: mtu is " + mtu + ", status is " + status);
+            if (status == BluetoothGatt.GATT_SUCCESS) BluetoothPeripheral.this.mtu = mtu;
+            complete(GattOperation.TYPE_REQUEST_MTU, status, null, mtu);
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
             super.onDescriptorWrite(gatt, descriptor, status);
-            if (connectState != BluetoothProfile.STATE_DISCONNECTED) {
-                connectState = BluetoothProfile.STATE_CONNECTED;
-                handler.post(() -> callback.onConnected(BluetoothPeripheral.this));
-            }
+            complete(GattOperation.TYPE_WRITE_DESCRIPTOR, status, null, 0);
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            super.onCharacteristicWrite(gatt, characteristic, status);
+            if (status != BluetoothGatt.GATT_SUCCESS) Logger.w("BluetoothPeripheral: write failed, status is " + status);
+            complete(GattOperation.TYPE_WRITE, status, null, 0);
+        }
+
+        @Override
+        public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            super.onCharacteristicRead(gatt, characteristic, status);
+            complete(GattOperation.TYPE_READ, status, characteristic.getValue(), 0);
+        }
+
+        @Override
+        public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
+            super.onReadRemoteRssi(gatt, rssi, status);
+            complete(GattOperation.TYPE_READ_RSSI, status, null, rssi);
+        }
+
+        private void complete(int type, int status, byte[] value, int intValue) {
+            GattOperationQueue operationQueue = this.operationQueue;
+            if (operationQueue != null) operationQueue.complete(type, status, value, intValue);
         }
 
         @Override
@@ -98,7 +362,9 @@ public abstract class BluetoothPeripheral extends Peripheral {
             super.onCharacteristicChanged(gatt, characteristic);
             if (connectState != BluetoothProfile.STATE_CONNECTED) return;
             byte[] value = characteristic.getValue();
-            if (messenger != null) handler.post(() -> messenger.reply(value));
+            FrameAssembler frameAssembler = BluetoothPeripheral.this.frameAssembler;
+            if (frameAssembler != null) frameAssembler.append(value);
+            else reply(value);
         }
 
         @SuppressLint("MissingPermission")
@@ -107,14 +373,59 @@ public abstract class BluetoothPeripheral extends Peripheral {
             gatt.disconnect();
             gatt.close();
             gatt = null;
+            GattOperationQueue operationQueue = this.operationQueue;
+            this.operationQueue = null;
+            if (operationQueue != null) operationQueue.close();
+            writeCharacteristic = null;
+            characteristics.clear();
+            attributeCache.clear();
+            mtu = DEFAULT_MTU;
+            FrameAssembler frameAssembler = BluetoothPeripheral.this.frameAssembler;
+            if (frameAssembler != null) frameAssembler.reset();
             final boolean connected = connectState == BluetoothProfile.STATE_CONNECTED;
             connectState = BluetoothProfile.STATE_DISCONNECTED;
-            if (connected) handler.post(() -> callback.onDisconnected(BluetoothPeripheral.this));
+            notifyClosed();
+            if (connected) post(callback, () -> callback.onDisconnected(BluetoothPeripheral.this));
         }
 
         private void onConnectFailed() {
             close();
-            handler.post(() -> callback.onConnectFailed(BluetoothPeripheral.this));
+            post(callback, () -> callback.onConnectFailed(BluetoothPeripheral.this));
+        }
+    }
+
+    @Override
+    public void setFrameAssembler(FrameAssembler frameAssembler) {
+        FrameAssembler old = this.frameAssembler;
+        if (old != null) old.setListener(null);
+        if (frameAssembler != null) frameAssembler.setListener(this::reply);
+        super.setFrameAssembler(frameAssembler);
+    }
+
+    /**
+     * 在回调所属的线程执行，见{@link BluetoothEventLoops}
+     */
+    private void post(Object target, Runnable task) {
+        BluetoothEventLoops.getInstance().getHandler(address, target).post(task);
+    }
+
+    /**
+     * 设置{@link PooledMessenger}使用的缓冲池
+     *
+     * @param bufferPool 缓冲池
+     */
+    public void setBufferPool(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    private void reply(byte[] value) {
+        Messenger messenger = this.messenger;
+        if (messenger instanceof PooledMessenger) {
+            // 协议栈每次通知都交出新的数组，直接包装不复制
+            PooledBuffer buffer = bufferPool.wrap(value);
+            buffer.post(BluetoothEventLoops.getInstance().getHandler(address, messenger), (PooledMessenger) messenger);
+        } else if (messenger != null) {
+            post(messenger, () -> messenger.reply(value));
         }
     }
 
@@ -130,13 +441,26 @@ public abstract class BluetoothPeripheral extends Peripheral {
     public void set(DataPacket command) {
         if (connectState != BluetoothProfile.STATE_CONNECTED) return;
         Logger.d(getClass().getSimpleName() + ": " + command.toString());
-        BluetoothGatt bluetoothGatt = bluetoothBleCallback.gatt;
-        BluetoothGattService gattService = bluetoothGatt.getService(UUID.fromString(getServiceUuid()));
-        if (gattService == null) return;
-        BluetoothGattCharacteristic characteristic = gattService.getCharacteristic(UUID.fromString(this.getWriteCharacteristicUuid()));
-        if (characteristic == null) return;
-        characteristic.setValue(command.getData());
-        bluetoothGatt.writeCharacteristic(characteristic);
+        BluetoothBleCallback bluetoothBleCallback = this.bluetoothBleCallback;
+        if (bluetoothBleCallback == null) return;
+        GattOperationQueue operationQueue = bluetoothBleCallback.operationQueue;
+        BluetoothGattCharacteristic characteristic = bluetoothBleCallback.writeCharacteristic;
+        if (operationQueue == null || characteristic == null) return;
+        for (byte[] chunk : segment(command)) {
+            operationQueue.enqueue(GattOperation.write(characteristic, chunk, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT, null), operationTimeoutMillis);
+        }
+    }
+
+    private byte[][] segment(DataPacket command) {
+        int length = command.getLength();
+        int payloadSize = getMaxPayloadSize();
+        if (length <= payloadSize) return new byte[][]{command.getData()};
+        byte[] data = command.getData();
+        byte[][] chunks = new byte[(length + payloadSize - 1) / payloadSize][];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = Arrays.copyOfRange(data, i * payloadSize, Math.min((i + 1) * payloadSize, length));
+        }
+        return chunks;
     }
 
     protected abstract String getServiceUuid();
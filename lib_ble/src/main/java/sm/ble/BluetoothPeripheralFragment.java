@@ -19,6 +19,7 @@ public class BluetoothPeripheralFragment extends Fragment implements PeripheralM
     private BluetoothDeviceExplorer bluetoothDeviceExplorer;
     private BluetoothPermissionsContext bluetoothPermissionsContext = new BluetoothPermissionsContext();
     private final List<PeripheralType> targetPeripherals = new ArrayList<>();
+    private BluetoothScanOptions scanOptions = new BluetoothScanOptions();
     private PeripheralManager.Callback peripheralManagerCallback;
     private Peripheral connectedPeripheral;
     private boolean disableAutoDisconnect;
@@ -110,7 +111,7 @@ public class BluetoothPeripheralFragment extends Fragment implements PeripheralM
 
     private void startExploreDevice() {
         if (bluetoothPermissionsContext.checkAllPermissions() && connectedPeripheral == null) {
-            bluetoothDeviceExplorer.startExploreDevice(targetPeripherals, BluetoothPeripheralManager.getInstance());
+            bluetoothDeviceExplorer.startExploreDevice(targetPeripherals, scanOptions, BluetoothPeripheralManager.getInstance());
             BluetoothPeripheralManager.getInstance().addCallback(this);
         }
     }
@@ -131,6 +132,17 @@ public class BluetoothPeripheralFragment extends Fragment implements PeripheralM
         return this;
     }
 
+    /**
+     * 设置扫描参数
+     *
+     * @param scanOptions 扫描参数
+     * @return BluetoothPeripheralFragment
+     */
+    public BluetoothPeripheralFragment setScanOptions(BluetoothScanOptions scanOptions) {
+        this.scanOptions = scanOptions;
+        return this;
+    }
+
     public BluetoothPeripheralFragment setPermissionsContext(BluetoothPermissionsContext permissionsContext) {
         this.bluetoothPermissionsContext = permissionsContext;
         return this;
@@ -151,7 +163,7 @@ public class BluetoothPeripheralFragment extends Fragment implements PeripheralM
     }
 
     public void reconnect() {
-        stopExploreDevice();
-        startExploreDevice();
+        if (bluetoothDeviceExplorer.isCanceledExploreDevice()) startExploreDevice();
+        else bluetoothDeviceExplorer.retryExploreDevice();
     }
 }
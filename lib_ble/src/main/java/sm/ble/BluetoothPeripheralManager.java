@@ -13,11 +13,12 @@ import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import sm.peripheral.Logger;
+import sm.peripheral.MainThreadDelivery;
 import sm.peripheral.Peripheral;
 import sm.peripheral.PeripheralManager;
 import sm.peripheral.PeripheralType;
 
-public class BluetoothPeripheralManager implements PeripheralManager, BluetoothStateReceiver.OnBluetoothStateListener, BluetoothDeviceExplorer.ExploreDeviceCallback, Peripheral.ConnectCallback {
+public class BluetoothPeripheralManager implements PeripheralManager, BluetoothStateReceiver.OnBluetoothStateListener, BluetoothDeviceExplorer.ExploreDeviceCallback, Peripheral.ConnectCallback, MainThreadDelivery {
     private static final BluetoothPeripheralManager instance = new BluetoothPeripheralManager();
     private Context applicationContext;
     private final List<Peripheral> connectedPeripherals = new CopyOnWriteArrayList<>();
@@ -61,8 +62,44 @@ public class BluetoothPeripheralManager implements PeripheralManager, BluetoothS
         return this;
     }
 
+    /**
+     * 按扫描参数连接一类设备
+     *
+     * @param peripheralType 设备类型
+     * @param scanOptions    扫描参数
+     * @return PeripheralManager
+     */
+    public PeripheralManager connect(PeripheralType peripheralType, BluetoothScanOptions scanOptions) {
+        return connect(Collections.singletonList(peripheralType), scanOptions);
+    }
+
+    /**
+     * 按扫描参数连接多个设备
+     *
+     * @param peripheralTypes 设备类型
+     * @param scanOptions     扫描参数
+     * @return PeripheralManager
+     */
+    public PeripheralManager connect(List<PeripheralType> peripheralTypes, BluetoothScanOptions scanOptions) {
+        for (PeripheralType peripheralType : peripheralTypes) {
+            connectOnlyOne(Collections.singletonList(peripheralType), scanOptions);
+        }
+        return this;
+    }
+
     @Override
     public PeripheralManager connectOnlyOne(List<PeripheralType> peripheralTypes) {
+        return connectOnlyOne(peripheralTypes, new BluetoothScanOptions());
+    }
+
+    /**
+     * 按扫描参数连接其中一个设备
+     *
+     * @param peripheralTypes 设备类型
+     * @param scanOptions     扫描参数
+     * @return PeripheralManager
+     */
+    public PeripheralManager connectOnlyOne(List<PeripheralType> peripheralTypes, BluetoothScanOptions scanOptions) {
         for (Peripheral connectedPeripheral : connectedPeripherals) {
             for (PeripheralType peripheralType : peripheralTypes) {
                 if (peripheralType.include(connectedPeripheral)) {
@@ -89,7 +126,7 @@ public class BluetoothPeripheralManager implements PeripheralManager, BluetoothS
             bluetoothDeviceExplorers.add(idleBluetoothDeviceExplorer);
         }
 
-        idleBluetoothDeviceExplorer.startExploreDevice(peripheralTypes, this);
+        idleBluetoothDeviceExplorer.startExploreDevice(peripheralTypes, scanOptions, this);
         return this;
     }
 
@@ -228,6 +265,7 @@ public class BluetoothPeripheralManager implements PeripheralManager, BluetoothS
 
     @Override
     public void onDisconnected(Peripheral peripheral) {
+        BluetoothScanner.getInstance().boost();
         callbackManager.onDisconnected(peripheral);
     }
 
@@ -0,0 +1,68 @@
+package sm.ble;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.ScanFilter;
+import android.os.ParcelUuid;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import sm.peripheral.Logger;
+import sm.peripheral.PeripheralType;
+
+/**
+ * 根据{@link PeripheralType}构建扫描过滤器，交由蓝牙控制器过滤广播。
+ * 扫描结果仍会用{@link PeripheralType#include(android.bluetooth.le.ScanResult)}再次过滤。
+ * <p>
+ * 只有声明了地址、服务UUID({@link PeripheralType#withServiceUuid})或厂商ID({@link PeripheralType#withManufacturerId})
+ * 的类型才能由控制器过滤，名称始终由软件过滤。只按名称查找的类型会使整个扫描不使用硬件过滤，
+ * 需要硬件过滤以降低功耗时，应为所有目标类型声明服务UUID或厂商ID
+ */
+final class BluetoothScanFilters {
+    private static final byte[] ANY_DATA = new byte[0];
+
+    private BluetoothScanFilters() {
+    }
+
+    /**
+     * 构建过滤器
+     *
+     * @param peripheralTypes 目标设备类型
+     * @return 过滤器。任一类型无法用硬件过滤表达时返回null，即不过滤，全部由软件过滤
+     */
+    @Nullable
+    static List<ScanFilter> build(List<PeripheralType> peripheralTypes) {
+        if (peripheralTypes.isEmpty()) return null;
+        List<ScanFilter> scanFilters = new ArrayList<>(peripheralTypes.size());
+        for (PeripheralType peripheralType : peripheralTypes) {
+            ScanFilter scanFilter = build(peripheralType);
+            if (scanFilter == null) {
+                Logger.d("BluetoothScanFilters: " + peripheralType + " can not be filtered by hardware");
+                return null;
+            }
+            scanFilters.add(scanFilter);
+        }
+        return scanFilters;
+    }
+
+    /**
+     * 名称不交给控制器过滤：控制器只匹配广播或扫描应答中的名称，
+     * 而软件过滤还会匹配系统缓存的{@link android.bluetooth.BluetoothDevice#getName()}，
+     * 只有名称的类型返回null，由软件过滤
+     */
+    @Nullable
+    private static ScanFilter build(PeripheralType peripheralType) {
+        String address = peripheralType.getAddress();
+        if (address == null && peripheralType.getServiceUuid() == null && peripheralType.getManufacturerId() < 0) {
+            return null;
+        }
+        if (address != null && !BluetoothAdapter.checkBluetoothAddress(address)) return null;
+        ScanFilter.Builder builder = new ScanFilter.Builder();
+        if (address != null) builder.setDeviceAddress(address);
+        if (peripheralType.getServiceUuid() != null) builder.setServiceUuid(new ParcelUuid(peripheralType.getServiceUuid()));
+        if (peripheralType.getManufacturerId() >= 0) builder.setManufacturerData(peripheralType.getManufacturerId(), ANY_DATA);
+        return builder.build();
+    }
+}
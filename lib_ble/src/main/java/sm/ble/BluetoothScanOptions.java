@@ -0,0 +1,178 @@
+package sm.ble;
+
+import android.bluetooth.le.ScanSettings;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+
+import java.util.List;
+import java.util.Objects;
+
+import sm.peripheral.Logger;
+
+/**
+ * 扫描参数，对应{@link ScanSettings}。多个搜索器共用一次扫描时取各自参数中最积极的一个
+ *
+ * @see BluetoothPeripheralManager#connect(List, BluetoothScanOptions)
+ */
+public final class BluetoothScanOptions {
+    private int scanMode = ScanSettings.SCAN_MODE_LOW_POWER;
+    private int callbackType = ScanSettings.CALLBACK_TYPE_ALL_MATCHES;
+    private int matchMode = ScanSettings.MATCH_MODE_AGGRESSIVE;
+    private int numOfMatches = ScanSettings.MATCH_NUM_MAX_ADVERTISEMENT;
+
+    public BluetoothScanOptions() {
+    }
+
+    public BluetoothScanOptions(BluetoothScanOptions options) {
+        this.scanMode = options.scanMode;
+        this.callbackType = options.callbackType;
+        this.matchMode = options.matchMode;
+        this.numOfMatches = options.numOfMatches;
+    }
+
+    /**
+     * 设置扫描模式
+     *
+     * @param scanMode {@link ScanSettings#SCAN_MODE_LOW_POWER}等，{@link ScanSettings#SCAN_MODE_OPPORTUNISTIC}需要Android 6.0
+     * @return BluetoothScanOptions
+     */
+    public BluetoothScanOptions withScanMode(int scanMode) {
+        if (scanMode < ScanSettings.SCAN_MODE_OPPORTUNISTIC || scanMode > ScanSettings.SCAN_MODE_LOW_LATENCY) {
+            throw new IllegalArgumentException("invalid scanMode " + scanMode);
+        }
+        if (scanMode == ScanSettings.SCAN_MODE_OPPORTUNISTIC && Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            throw new IllegalArgumentException("SCAN_MODE_OPPORTUNISTIC requires Android 6.0");
+        }
+        this.scanMode = scanMode;
+        return this;
+    }
+
+    public int getScanMode() {
+        return scanMode;
+    }
+
+    /**
+     * 设置回调类型，Android 6.0以下忽略。FIRST_MATCH和MATCH_LOST需要硬件过滤，无法过滤时按ALL_MATCHES扫描
+     *
+     * @param callbackType {@link ScanSettings#CALLBACK_TYPE_ALL_MATCHES}等
+     * @return BluetoothScanOptions
+     */
+    public BluetoothScanOptions withCallbackType(int callbackType) {
+        int matchCallbackType = ScanSettings.CALLBACK_TYPE_FIRST_MATCH | ScanSettings.CALLBACK_TYPE_MATCH_LOST;
+        if (callbackType != ScanSettings.CALLBACK_TYPE_ALL_MATCHES
+                && (callbackType & ~matchCallbackType) != 0 || callbackType == 0) {
+            throw new IllegalArgumentException("invalid callbackType " + callbackType);
+        }
+        this.callbackType = callbackType;
+        return this;
+    }
+
+    public int getCallbackType() {
+        return callbackType;
+    }
+
+    /**
+     * 设置匹配模式，Android 6.0以下忽略
+     *
+     * @param matchMode {@link ScanSettings#MATCH_MODE_AGGRESSIVE}或{@link ScanSettings#MATCH_MODE_STICKY}
+     * @return BluetoothScanOptions
+     */
+    public BluetoothScanOptions withMatchMode(int matchMode) {
+        if (matchMode != ScanSettings.MATCH_MODE_AGGRESSIVE && matchMode != ScanSettings.MATCH_MODE_STICKY) {
+            throw new IllegalArgumentException("invalid matchMode " + matchMode);
+        }
+        this.matchMode = matchMode;
+        return this;
+    }
+
+    public int getMatchMode() {
+        return matchMode;
+    }
+
+    /**
+     * 设置每个过滤器匹配的广播数，Android 6.0以下忽略
+     *
+     * @param numOfMatches {@link ScanSettings#MATCH_NUM_ONE_ADVERTISEMENT}等
+     * @return BluetoothScanOptions
+     */
+    public BluetoothScanOptions withNumOfMatches(int numOfMatches) {
+        if (numOfMatches < ScanSettings.MATCH_NUM_ONE_ADVERTISEMENT || numOfMatches > ScanSettings.MATCH_NUM_MAX_ADVERTISEMENT) {
+            throw new IllegalArgumentException("invalid numOfMatches " + numOfMatches);
+        }
+        this.numOfMatches = numOfMatches;
+        return this;
+    }
+
+    public int getNumOfMatches() {
+        return numOfMatches;
+    }
+
+    /**
+     * 合并多个扫描参数，取扫描最积极的值
+     */
+    static BluetoothScanOptions merge(List<BluetoothScanOptions> optionsList) {
+        BluetoothScanOptions merged = new BluetoothScanOptions();
+        merged.scanMode = ScanSettings.SCAN_MODE_OPPORTUNISTIC;
+        merged.callbackType = 0;
+        merged.matchMode = ScanSettings.MATCH_MODE_STICKY;
+        merged.numOfMatches = ScanSettings.MATCH_NUM_ONE_ADVERTISEMENT;
+        for (BluetoothScanOptions options : optionsList) {
+            merged.scanMode = Math.max(merged.scanMode, options.scanMode);
+            if (options.callbackType == ScanSettings.CALLBACK_TYPE_ALL_MATCHES
+                    || merged.callbackType == ScanSettings.CALLBACK_TYPE_ALL_MATCHES) {
+                merged.callbackType = ScanSettings.CALLBACK_TYPE_ALL_MATCHES;
+            } else {
+                merged.callbackType |= options.callbackType;
+            }
+            if (options.matchMode == ScanSettings.MATCH_MODE_AGGRESSIVE) merged.matchMode = options.matchMode;
+            merged.numOfMatches = Math.max(merged.numOfMatches, options.numOfMatches);
+        }
+        if (merged.callbackType == 0) merged.callbackType = ScanSettings.CALLBACK_TYPE_ALL_MATCHES;
+        return merged;
+    }
+
+    ScanSettings toScanSettings(long reportDelayMillis, boolean filtered) {
+        ScanSettings.Builder builder = new ScanSettings.Builder()
+                .setScanMode(scanMode)
+                .setReportDelay(reportDelayMillis);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            int callbackType = this.callbackType;
+            if (callbackType != ScanSettings.CALLBACK_TYPE_ALL_MATCHES && !filtered) {
+                Logger.w("BluetoothScanOptions: callbackType " + callbackType + " needs hardware filters, use ALL_MATCHES");
+                callbackType = ScanSettings.CALLBACK_TYPE_ALL_MATCHES;
+            }
+            builder.setCallbackType(callbackType)
+                    .setMatchMode(matchMode)
+                    .setNumOfMatches(numOfMatches);
+        }
+        return builder.build();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        BluetoothScanOptions that = (BluetoothScanOptions) o;
+        return scanMode == that.scanMode
+                && callbackType == that.callbackType
+                && matchMode == that.matchMode
+                && numOfMatches == that.numOfMatches;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(scanMode, callbackType, matchMode, numOfMatches);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "BluetoothScanOptions{" +
+                "scanMode=" + scanMode +
+                ", callbackType=" + callbackType +
+                ", matchMode=" + matchMode +
+                ", numOfMatches=" + numOfMatches +
+                '}';
+    }
+}
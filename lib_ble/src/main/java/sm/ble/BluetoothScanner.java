@@ -0,0 +1,342 @@
+package sm.ble;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import sm.peripheral.Logger;
+import sm.peripheral.PeripheralType;
+
+/**
+ * 共享扫描器。所有{@link BluetoothDeviceExplorer}共用一次扫描，扫描目标为各搜索器目标的合集，
+ * 扫描结果分发给匹配的搜索器。目标减少或已被当前过滤器覆盖时不重启扫描，
+ * 启动扫描受{@link ScanGovernor}限制，超出频率时推迟并合并启动请求。
+ * 扫描参数取各搜索器{@link BluetoothScanOptions}中最积极的一个，可选{@link ScanDutyCycle}间歇扫描
+ */
+public final class BluetoothScanner {
+    private static final BluetoothScanner instance = new BluetoothScanner();
+    private static final long RETRY_DELAY_MILLIS = 10 * 1000;
+    private final BluetoothAdapter bluetooth = BluetoothAdapter.getDefaultAdapter();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final List<BluetoothDeviceExplorer> explorers = new CopyOnWriteArrayList<>();
+    private final Runnable updateTask = this::onUpdateTask;
+    private final ScanGovernor governor = new ScanGovernor();
+    private BluetoothLeScanner bluetoothLeScanner;
+    private ScanSession session;
+    private boolean restartRequested;
+    private boolean deferred;
+    private long reportDelayMillis;
+    private ScanDutyCycle dutyCycle;
+    private long dutyCycleStartTime;
+
+    private BluetoothScanner() {
+    }
+
+    public static BluetoothScanner getInstance() {
+        return instance;
+    }
+
+    /**
+     * 获取扫描状态
+     *
+     * @return 扫描状态
+     */
+    public synchronized State getState() {
+        if (deferred) return State.DEFERRED;
+        return session != null ? State.SCANNING : State.IDLE;
+    }
+
+    /**
+     * 是否正在扫描。{@link State#DEFERRED}时旧的扫描可能仍在进行
+     *
+     * @return 是否正在扫描
+     */
+    public synchronized boolean isScanning() {
+        return session != null;
+    }
+
+    /**
+     * 获取当前扫描的目标
+     *
+     * @return 扫描目标，未扫描时为空
+     */
+    public synchronized List<PeripheralType> getScanningTargets() {
+        return session == null ? new ArrayList<>() : new ArrayList<>(session.targets);
+    }
+
+    /**
+     * 获取扫描频率限制
+     *
+     * @return 扫描频率限制
+     */
+    public ScanGovernor getGovernor() {
+        return governor;
+    }
+
+    /**
+     * 设置批量回调的延时。大于0时扫描结果由控制器缓存，每个延时周期批量回调一次，
+     * 减少唤醒次数，适合后台检测设备是否在附近；控制器不支持时忽略
+     *
+     * @param reportDelayMillis 延时，0为逐个回调(默认)
+     */
+    public synchronized void setReportDelay(long reportDelayMillis) {
+        if (reportDelayMillis < 0) throw new IllegalArgumentException("reportDelayMillis must not be negative");
+        if (this.reportDelayMillis == reportDelayMillis) return;
+        this.reportDelayMillis = reportDelayMillis;
+        requestUpdate();
+    }
+
+    public synchronized long getReportDelay() {
+        return reportDelayMillis;
+    }
+
+    /**
+     * 立即回调控制器缓存的扫描结果，批量回调时有效
+     */
+    @SuppressLint("MissingPermission")
+    public synchronized void flushPendingScanResults() {
+        if (session == null || session.reportDelayMillis == 0) return;
+        BluetoothLeScanner bluetoothLeScanner = getBluetoothLeScanner();
+        if (bluetoothLeScanner != null && bluetooth.isEnabled()) {
+            bluetoothLeScanner.flushPendingScanResults(session);
+        }
+    }
+
+    /**
+     * 设置自适应扫描占空比。开始连接或设备断开后先低延迟扫描，之后间歇扫描
+     *
+     * @param dutyCycle 占空比，null为持续扫描(默认)
+     */
+    public synchronized void setDutyCycle(ScanDutyCycle dutyCycle) {
+        this.dutyCycle = dutyCycle;
+        this.dutyCycleStartTime = SystemClock.elapsedRealtime();
+        requestUpdate();
+    }
+
+    public synchronized ScanDutyCycle getDutyCycle() {
+        return dutyCycle;
+    }
+
+    /**
+     * 重新开始占空比，立即进入低延迟扫描阶段。设备断开时调用
+     */
+    public synchronized void boost() {
+        if (dutyCycle == null) return;
+        dutyCycleStartTime = SystemClock.elapsedRealtime();
+        requestUpdate();
+    }
+
+    synchronized void register(BluetoothDeviceExplorer explorer) {
+        if (explorers.contains(explorer)) {
+            update();
+            return;
+        }
+        explorers.add(explorer);
+        dutyCycleStartTime = SystemClock.elapsedRealtime();
+        update();
+    }
+
+    synchronized void unregister(BluetoothDeviceExplorer explorer) {
+        if (!explorers.remove(explorer)) return;
+        update();
+    }
+
+    synchronized void onTargetsChanged() {
+        update();
+    }
+
+    /**
+     * 重启扫描。多次请求合并为一次，超出频率限制时推迟
+     */
+    synchronized void restart() {
+        restartRequested = true;
+        requestUpdate();
+    }
+
+    private void requestUpdate() {
+        schedule(0);
+    }
+
+    private synchronized void onUpdateTask() {
+        update();
+    }
+
+    private void schedule(long delayMillis) {
+        handler.removeCallbacks(updateTask);
+        handler.postDelayed(updateTask, delayMillis);
+    }
+
+    private void update() {
+        handler.removeCallbacks(updateTask);
+        List<PeripheralType> targets = new ArrayList<>();
+        List<BluetoothScanOptions> optionsList = new ArrayList<>();
+        for (BluetoothDeviceExplorer explorer : explorers) {
+            for (PeripheralType target : explorer.getTargets()) {
+                if (!targets.contains(target)) targets.add(target);
+            }
+            optionsList.add(explorer.getScanOptions());
+        }
+        if (targets.isEmpty()) {
+            restartRequested = false;
+            deferred = false;
+            stopScan();
+            return;
+        }
+        BluetoothScanOptions options = BluetoothScanOptions.merge(optionsList);
+        long nextUpdate = -1;
+        ScanDutyCycle dutyCycle = this.dutyCycle;
+        if (dutyCycle != null) {
+            long elapsed = SystemClock.elapsedRealtime() - dutyCycleStartTime;
+            nextUpdate = dutyCycle.getNextChange(elapsed);
+            if (!dutyCycle.isScanning(elapsed)) {
+                restartRequested = false;
+                deferred = false;
+                stopScan();
+                schedule(nextUpdate);
+                return;
+            }
+            if (dutyCycle.isBurst(elapsed)) options.withScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY);
+        }
+        long reportDelayMillis = this.reportDelayMillis;
+        if (reportDelayMillis > 0 && !bluetooth.isOffloadedScanBatchingSupported()) {
+            reportDelayMillis = 0;
+        }
+        if (restartRequested || session == null || !session.covers(targets, options, reportDelayMillis)) {
+            long delay = governor.getStartDelay();
+            if (delay > 0) {
+                if (!deferred) Logger.d("BluetoothScanner: scan start deferred " + delay + "ms, targets is " + targets);
+                deferred = true;
+                nextUpdate = nextUpdate < 0 ? delay : Math.min(nextUpdate, delay);
+            } else {
+                deferred = false;
+                restartRequested = false;
+                stopScan();
+                if (startScan(targets, options, reportDelayMillis)) governor.onStarted();
+            }
+        } else {
+            deferred = false;
+        }
+        if (nextUpdate >= 0) schedule(nextUpdate);
+    }
+
+    @SuppressLint("MissingPermission")
+    private boolean startScan(List<PeripheralType> targets, BluetoothScanOptions options, long reportDelayMillis) {
+        BluetoothLeScanner bluetoothLeScanner = getBluetoothLeScanner();
+        if (bluetoothLeScanner == null || !bluetooth.isEnabled()) return false;
+        if (reportDelayMillis != this.reportDelayMillis) {
+            Logger.w("BluetoothScanner: scan batching not supported, report delay ignored");
+        }
+        List<ScanFilter> scanFilters = BluetoothScanFilters.build(targets);
+        session = new ScanSession(targets, scanFilters, options, reportDelayMillis);
+        Logger.d("BluetoothScanner: scan start, targets is " + targets + ", filtered by hardware is " + (scanFilters != null) + ", options is " + options + ", report delay is " + reportDelayMillis);
+        ScanSettings scanSettings = options.toScanSettings(reportDelayMillis, scanFilters != null);
+        bluetoothLeScanner.startScan(scanFilters, scanSettings, session);
+        return true;
+    }
+
+    @SuppressLint("MissingPermission")
+    private void stopScan() {
+        ScanSession session = this.session;
+        if (session == null) return;
+        this.session = null;
+        Logger.d("BluetoothScanner: scan stop, targets is " + session.targets);
+        BluetoothLeScanner bluetoothLeScanner = getBluetoothLeScanner();
+        if (bluetoothLeScanner != null && bluetooth.isEnabled()) {
+            bluetoothLeScanner.stopScan(session);
+        }
+    }
+
+    private BluetoothLeScanner getBluetoothLeScanner() {
+        if (bluetoothLeScanner == null) {
+            bluetoothLeScanner = bluetooth.getBluetoothLeScanner();
+        }
+        if (bluetoothLeScanner == null) {
+            Logger.w("BluetoothScanner: BluetoothLeScanner null");
+        }
+        return bluetoothLeScanner;
+    }
+
+    private synchronized void onScanFailed(ScanSession failed, int errorCode) {
+        Logger.d("BluetoothScanner: scan fail, targets is " + failed.targets + ", errorCode is " + errorCode);
+        if (session != failed) return;
+        session = null;
+        restartRequested = true;
+        schedule(RETRY_DELAY_MILLIS);
+    }
+
+    /**
+     * 扫描状态
+     */
+    public enum State {
+        /**
+         * 未扫描
+         */
+        IDLE,
+        /**
+         * 正在扫描
+         */
+        SCANNING,
+        /**
+         * 超出频率限制，等待启动或重启扫描
+         */
+        DEFERRED
+    }
+
+    private class ScanSession extends ScanCallback {
+        private final List<PeripheralType> targets;
+        private final List<ScanFilter> scanFilters;
+        private final BluetoothScanOptions options;
+        private final long reportDelayMillis;
+
+        ScanSession(List<PeripheralType> targets, List<ScanFilter> scanFilters, BluetoothScanOptions options, long reportDelayMillis) {
+            this.targets = targets;
+            this.scanFilters = scanFilters;
+            this.options = options;
+            this.reportDelayMillis = reportDelayMillis;
+        }
+
+        /**
+         * 当前扫描是否满足要求。参数相同且过滤器覆盖所有目标，未使用硬件过滤时覆盖所有目标
+         */
+        boolean covers(List<PeripheralType> targets, BluetoothScanOptions options, long reportDelayMillis) {
+            return this.options.equals(options)
+                    && this.reportDelayMillis == reportDelayMillis
+                    && (scanFilters == null || this.targets.containsAll(targets));
+        }
+
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            super.onScanResult(callbackType, result);
+            if (session != this || callbackType == ScanSettings.CALLBACK_TYPE_MATCH_LOST) return;
+            for (BluetoothDeviceExplorer explorer : explorers) {
+                explorer.onScanResult(result);
+            }
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            super.onBatchScanResults(results);
+            if (session != this || results.isEmpty()) return;
+            for (BluetoothDeviceExplorer explorer : explorers) {
+                explorer.onBatchScanResults(results);
+            }
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            super.onScanFailed(errorCode);
+            BluetoothScanner.this.onScanFailed(this, errorCode);
+        }
+    }
+}
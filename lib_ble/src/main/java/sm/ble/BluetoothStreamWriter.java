@@ -0,0 +1,375 @@
+package sm.ble;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import sm.peripheral.Logger;
+
+/**
+ * 无应答写入(WRITE_TYPE_NO_RESPONSE)的流式写入。按MTU分段，保持若干段在GATT队列中等待，
+ * 上一段被协议栈接收后立即发起下一段，使控制器缓冲区保持满载。
+ * 输入流在单独的读取线程中读取，不阻塞GATT回调线程
+ *
+ * @see BluetoothPeripheral#stream(ByteBuffer, Callback)
+ * @see BluetoothPeripheral#stream(InputStream, Callback)
+ */
+public final class BluetoothStreamWriter {
+    private static final long PROGRESS_INTERVAL_NANOS = 200 * 1000 * 1000L;
+    private static final Executor READER = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "BluetoothStreamWriter");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Transport transport;
+    private final Source source;
+    private final long total;
+    private final int window;
+    private final Callback callback;
+    private final ArrayDeque<byte[]> buffers = new ArrayDeque<>();
+    private long startTime;
+    private long lastProgressTime;
+    private long bytesWritten;
+    private int inFlight;
+    private boolean started;
+    private boolean finished;
+    private boolean exhausted;
+    private boolean filling;
+
+    /**
+     * @param transport 写入通道
+     * @param data      数据，从position写到limit
+     * @param window    同时排队的段数
+     * @param callback  回调
+     */
+    public BluetoothStreamWriter(Transport transport, ByteBuffer data, int window, Callback callback) {
+        this(transport, new BufferSource(data.duplicate()), data.remaining(), window, callback);
+    }
+
+    /**
+     * @param transport 写入通道
+     * @param in        输入流，在读取线程读取，读完后关闭
+     * @param length    总长度，未知时为-1
+     * @param window    同时排队的段数
+     * @param callback  回调
+     */
+    public BluetoothStreamWriter(Transport transport, InputStream in, long length, int window, Callback callback) {
+        this(transport, new StreamSource(in), length, window, callback);
+    }
+
+    private BluetoothStreamWriter(Transport transport, Source source, long total, int window, Callback callback) {
+        if (window <= 0) throw new IllegalArgumentException("window must be greater than 0");
+        this.transport = transport;
+        this.source = source;
+        this.total = total;
+        this.window = window;
+        this.callback = callback;
+    }
+
+    /**
+     * 开始写入
+     */
+    public void start() {
+        synchronized (this) {
+            if (started) throw new IllegalStateException("already started");
+            started = true;
+            startTime = System.nanoTime();
+            lastProgressTime = startTime;
+        }
+        fill();
+    }
+
+    /**
+     * 取消写入，已排队的段仍会发出
+     */
+    public void cancel() {
+        finish(new IOException("cancelled"));
+    }
+
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public synchronized boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * 获取平均写入速率
+     *
+     * @return 字节/秒
+     */
+    public synchronized double getBytesPerSecond() {
+        if (!started) return 0;
+        return rate(System.nanoTime());
+    }
+
+    private double rate(long now) {
+        long elapsed = now - startTime;
+        return elapsed <= 0 ? 0 : bytesWritten * 1e9 / elapsed;
+    }
+
+    private void fill() {
+        synchronized (this) {
+            if (filling) return;
+            filling = true;
+        }
+        if (source.isBlocking()) READER.execute(this::fillLoop);
+        else fillLoop();
+    }
+
+    /**
+     * 读取并发起写入，直到窗口已满或数据读完。读取时不持有锁，读取期间占用一个窗口位置
+     */
+    private void fillLoop() {
+        for (; ; ) {
+            byte[] buffer;
+            synchronized (this) {
+                if (finished || exhausted || inFlight >= window) {
+                    filling = false;
+                    return;
+                }
+                buffer = obtainBuffer();
+                inFlight++;
+            }
+            int length;
+            IOException error = null;
+            try {
+                length = source.read(buffer);
+            } catch (IOException e) {
+                length = 0;
+                error = e;
+            }
+            byte[] chunk;
+            boolean completed = false;
+            synchronized (this) {
+                if (finished || error != null || length <= 0) {
+                    inFlight--;
+                    buffers.push(buffer);
+                    filling = false;
+                    if (!finished && error == null) {
+                        exhausted = true;
+                        completed = inFlight == 0;
+                    }
+                    chunk = null;
+                } else {
+                    chunk = trim(buffer, length);
+                }
+            }
+            if (chunk == null) {
+                if (error != null) {
+                    finish(error);
+                } else if (length <= 0 && exhausted) {
+                    closeSource();
+                    if (completed) complete();
+                }
+                return;
+            }
+            final byte[] written = chunk;
+            transport.write(written, success -> onWritten(written, success));
+        }
+    }
+
+    private byte[] obtainBuffer() {
+        int payloadSize = transport.getMaxPayloadSize();
+        byte[] buffer = buffers.poll();
+        if (buffer == null || buffer.length != payloadSize) buffer = new byte[payloadSize];
+        return buffer;
+    }
+
+    private byte[] trim(byte[] buffer, int length) {
+        if (length == buffer.length) return buffer;
+        byte[] chunk = new byte[length];
+        System.arraycopy(buffer, 0, chunk, 0, length);
+        buffers.push(buffer);
+        return chunk;
+    }
+
+    private void onWritten(byte[] chunk, boolean success) {
+        boolean completed = false;
+        boolean progress = false;
+        long bytesWritten;
+        double rate = 0;
+        synchronized (this) {
+            inFlight--;
+            if (finished) return;
+            bytesWritten = this.bytesWritten;
+            if (success) {
+                bytesWritten = this.bytesWritten += chunk.length;
+                if (chunk.length == transport.getMaxPayloadSize()) buffers.push(chunk);
+                completed = exhausted && inFlight == 0;
+                long now = System.nanoTime();
+                if (!completed && now - lastProgressTime >= PROGRESS_INTERVAL_NANOS) {
+                    lastProgressTime = now;
+                    progress = true;
+                    rate = rate(now);
+                }
+            }
+        }
+        if (!success) {
+            finish(new IOException("write failed after " + bytesWritten + " bytes"));
+            return;
+        }
+        if (completed) {
+            complete();
+            return;
+        }
+        if (progress) callback.onProgress(this, bytesWritten, total, rate);
+        fill();
+    }
+
+    private void complete() {
+        long bytesWritten;
+        double rate;
+        synchronized (this) {
+            if (finished) return;
+            finished = true;
+            bytesWritten = this.bytesWritten;
+            rate = rate(System.nanoTime());
+        }
+        callback.onComplete(this, bytesWritten, rate);
+    }
+
+    private void finish(IOException error) {
+        synchronized (this) {
+            if (finished) return;
+            finished = true;
+        }
+        closeSource();
+        callback.onError(this, error);
+    }
+
+    private void closeSource() {
+        try {
+            source.close();
+        } catch (IOException e) {
+            Logger.w("BluetoothStreamWriter: close failed, " + e);
+        }
+    }
+
+    /**
+     * 写入通道。可用内存实现替代GATT做基准测试
+     */
+    public interface Transport {
+        /**
+         * 获取单次写入的最大字节数
+         *
+         * @return 最大字节数
+         */
+        int getMaxPayloadSize();
+
+        /**
+         * 排队写入一段数据，完成后回调
+         *
+         * @param chunk      数据
+         * @param completion 完成回调
+         */
+        void write(byte[] chunk, Completion completion);
+    }
+
+    /**
+     * 写入完成回调
+     */
+    public interface Completion {
+        void onComplete(boolean success);
+    }
+
+    /**
+     * 流式写入回调，在完成写入的线程回调
+     */
+    public interface Callback {
+        /**
+         * 写入进度，最多每200ms回调一次
+         *
+         * @param writer         写入
+         * @param bytesWritten   已写入字节数
+         * @param total          总字节数，未知时为-1
+         * @param bytesPerSecond 平均速率
+         */
+        void onProgress(BluetoothStreamWriter writer, long bytesWritten, long total, double bytesPerSecond);
+
+        /**
+         * 写入完成
+         *
+         * @param writer         写入
+         * @param bytesWritten   写入字节数
+         * @param bytesPerSecond 平均速率
+         */
+        void onComplete(BluetoothStreamWriter writer, long bytesWritten, double bytesPerSecond);
+
+        /**
+         * 写入失败或取消
+         *
+         * @param writer 写入
+         * @param error  原因
+         */
+        void onError(BluetoothStreamWriter writer, IOException error);
+    }
+
+    private interface Source {
+        int read(byte[] buffer) throws IOException;
+
+        /**
+         * 读取是否可能阻塞，阻塞时在读取线程读取
+         */
+        boolean isBlocking();
+
+        void close() throws IOException;
+    }
+
+    private static final class BufferSource implements Source {
+        private final ByteBuffer buffer;
+
+        BufferSource(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read(byte[] dst) {
+            int length = Math.min(dst.length, buffer.remaining());
+            buffer.get(dst, 0, length);
+            return length;
+        }
+
+        @Override
+        public boolean isBlocking() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class StreamSource implements Source {
+        private final InputStream in;
+
+        StreamSource(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read(byte[] dst) throws IOException {
+            int length = 0;
+            while (length < dst.length) {
+                int read = in.read(dst, length, dst.length - length);
+                if (read < 0) break;
+                length += read;
+            }
+            return length;
+        }
+
+        @Override
+        public boolean isBlocking() {
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
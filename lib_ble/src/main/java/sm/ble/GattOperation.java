@@ -0,0 +1,122 @@
+package sm.ble;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+
+/**
+ * GATT操作。由{@link GattOperationQueue}串行执行，收到对应的完成回调或超时后执行下一个
+ */
+abstract class GattOperation {
+    static final int TYPE_WRITE = 0;
+    static final int TYPE_READ = 1;
+    static final int TYPE_WRITE_DESCRIPTOR = 2;
+    static final int TYPE_REQUEST_MTU = 3;
+    static final int TYPE_READ_RSSI = 4;
+    /**
+     * 发起操作失败
+     */
+    static final int STATUS_NOT_STARTED = -1;
+    /**
+     * 等待完成回调超时
+     */
+    static final int STATUS_TIMEOUT = -2;
+    /**
+     * 连接断开，操作被丢弃
+     */
+    static final int STATUS_CANCELLED = -3;
+
+    final int type;
+    private final Callback callback;
+    long timeoutMillis;
+    /**
+     * 发起失败的次数
+     */
+    int startAttempts;
+    int status;
+    byte[] value;
+    int intValue;
+
+    GattOperation(int type, Callback callback) {
+        this.type = type;
+        this.callback = callback;
+    }
+
+    /**
+     * 发起操作
+     *
+     * @param gatt gatt
+     * @return 是否发起成功
+     */
+    abstract boolean execute(BluetoothGatt gatt);
+
+    boolean isSuccess() {
+        return status == BluetoothGatt.GATT_SUCCESS;
+    }
+
+    void complete(int status) {
+        this.status = status;
+        if (callback != null) callback.onComplete(this);
+    }
+
+    static GattOperation write(BluetoothGattCharacteristic characteristic, byte[] value, int writeType, Callback callback) {
+        return new GattOperation(TYPE_WRITE, callback) {
+            @SuppressLint("MissingPermission")
+            @Override
+            boolean execute(BluetoothGatt gatt) {
+                characteristic.setWriteType(writeType);
+                characteristic.setValue(value);
+                return gatt.writeCharacteristic(characteristic);
+            }
+        };
+    }
+
+    static GattOperation read(BluetoothGattCharacteristic characteristic, Callback callback) {
+        return new GattOperation(TYPE_READ, callback) {
+            @SuppressLint("MissingPermission")
+            @Override
+            boolean execute(BluetoothGatt gatt) {
+                return gatt.readCharacteristic(characteristic);
+            }
+        };
+    }
+
+    static GattOperation writeDescriptor(BluetoothGattDescriptor descriptor, byte[] value, Callback callback) {
+        return new GattOperation(TYPE_WRITE_DESCRIPTOR, callback) {
+            @SuppressLint("MissingPermission")
+            @Override
+            boolean execute(BluetoothGatt gatt) {
+                descriptor.setValue(value);
+                return gatt.writeDescriptor(descriptor);
+            }
+        };
+    }
+
+    static GattOperation requestMtu(int mtu, Callback callback) {
+        return new GattOperation(TYPE_REQUEST_MTU, callback) {
+            @SuppressLint("MissingPermission")
+            @Override
+            boolean execute(BluetoothGatt gatt) {
+                return gatt.requestMtu(mtu);
+            }
+        };
+    }
+
+    static GattOperation readRssi(Callback callback) {
+        return new GattOperation(TYPE_READ_RSSI, callback) {
+            @SuppressLint("MissingPermission")
+            @Override
+            boolean execute(BluetoothGatt gatt) {
+                return gatt.readRemoteRssi();
+            }
+        };
+    }
+
+    /**
+     * 完成回调，在GATT回调线程或调度线程执行
+     */
+    interface Callback {
+        void onComplete(GattOperation operation);
+    }
+}
@@ -0,0 +1,184 @@
+package sm.ble;
+
+import android.bluetooth.BluetoothGatt;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import sm.peripheral.Logger;
+import sm.peripheral.PeripheralScheduler;
+
+/**
+ * GATT操作队列。Android同一时间只允许一个未完成的GATT操作，
+ * 队列在收到上一个操作的完成回调(或超时)后才发起下一个。
+ * 超时后协议栈通常仍在忙，发起失败的操作稍后重试，超过次数才单独失败；
+ * 超时操作迟到的完成回调被丢弃，不会当作下一个同类型操作的完成
+ */
+final class GattOperationQueue {
+    private static final int MAX_START_ATTEMPTS = 3;
+    private static final long START_RETRY_DELAY_MILLIS = 200;
+    private final PeripheralScheduler scheduler;
+    private final Queue<GattOperation> operations = new ArrayDeque<>();
+    private BluetoothGatt gatt;
+    private GattOperation current;
+    private PeripheralScheduler.Timeout timeout;
+    /**
+     * 已超时、可能仍会收到完成回调的操作，下一个操作发起成功后清除
+     */
+    private GattOperation stale;
+    private PeripheralScheduler.Timeout retry;
+
+    GattOperationQueue(BluetoothGatt gatt, PeripheralScheduler scheduler) {
+        this.gatt = gatt;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * 添加操作
+     *
+     * @param operation     操作
+     * @param timeoutMillis 等待完成回调的超时时间
+     */
+    void enqueue(GattOperation operation, long timeoutMillis) {
+        operation.timeoutMillis = timeoutMillis;
+        boolean accepted;
+        synchronized (this) {
+            accepted = gatt != null;
+            if (accepted) operations.add(operation);
+        }
+        if (accepted) drain();
+        else operation.complete(GattOperation.STATUS_CANCELLED);
+    }
+
+    /**
+     * 当前操作完成，由GATT回调调用
+     *
+     * @param type     操作类型
+     * @param status   状态
+     * @param value    读取的值
+     * @param intValue MTU或RSSI
+     */
+    void complete(int type, int status, byte[] value, int intValue) {
+        GattOperation operation;
+        synchronized (this) {
+            operation = current;
+            if (operation == null && stale != null && stale.type == type) {
+                Logger.w("GattOperationQueue: late completion of timed-out operation of type " + type + ", status is " + status);
+                stale = null;
+                cancelRetry();
+            } else if (operation == null || operation.type != type) {
+                Logger.w("GattOperationQueue: unexpected completion of type " + type + ", current is " + operation);
+                return;
+            } else {
+                finishCurrent();
+            }
+        }
+        if (operation == null) {
+            drain();
+            return;
+        }
+        operation.value = value;
+        operation.intValue = intValue;
+        operation.complete(status);
+        drain();
+    }
+
+    /**
+     * 是否有未完成的操作
+     */
+    synchronized boolean isBusy() {
+        return current != null;
+    }
+
+    /**
+     * 丢弃所有操作，连接断开时调用
+     */
+    void close() {
+        List<GattOperation> cancelled;
+        synchronized (this) {
+            gatt = null;
+            cancelled = new ArrayList<>(operations.size() + 1);
+            if (current != null) cancelled.add(current);
+            cancelled.addAll(operations);
+            operations.clear();
+            finishCurrent();
+            stale = null;
+            cancelRetry();
+        }
+        for (GattOperation operation : cancelled) {
+            operation.complete(GattOperation.STATUS_CANCELLED);
+        }
+    }
+
+    private void onTimeout(GattOperation operation) {
+        synchronized (this) {
+            if (current != operation) return;
+            finishCurrent();
+            stale = operation;
+        }
+        Logger.w("GattOperationQueue: operation of type " + operation.type + " timeout after " + operation.timeoutMillis + "ms");
+        operation.complete(GattOperation.STATUS_TIMEOUT);
+        drain();
+    }
+
+    private void finishCurrent() {
+        current = null;
+        if (timeout != null) timeout.cancel();
+        timeout = null;
+    }
+
+    private void cancelRetry() {
+        if (retry != null) retry.cancel();
+        retry = null;
+    }
+
+    private void onRetry() {
+        synchronized (this) {
+            retry = null;
+        }
+        drain();
+    }
+
+    private void drain() {
+        List<GattOperation> failed = null;
+        synchronized (this) {
+            if (current == null && retry == null) failed = next();
+        }
+        if (failed == null) return;
+        for (GattOperation operation : failed) {
+            operation.complete(GattOperation.STATUS_NOT_STARTED);
+        }
+        drain();
+    }
+
+    /**
+     * 发起下一个操作。发起失败时稍后重试，多次失败的操作返回给调用者在锁外回调
+     */
+    private List<GattOperation> next() {
+        List<GattOperation> failed = null;
+        GattOperation operation;
+        while (gatt != null && (operation = operations.peek()) != null) {
+            if (operation.execute(gatt)) {
+                operations.poll();
+                current = operation;
+                stale = null;
+                GattOperation started = operation;
+                timeout = scheduler.schedule(() -> onTimeout(started), operation.timeoutMillis, TimeUnit.MILLISECONDS);
+                break;
+            }
+            if (++operation.startAttempts < MAX_START_ATTEMPTS) {
+                Logger.w("GattOperationQueue: operation of type " + operation.type + " not started, retry in " + START_RETRY_DELAY_MILLIS + "ms");
+                retry = scheduler.schedule(this::onRetry, START_RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+                break;
+            }
+            operations.poll();
+            Logger.w("GattOperationQueue: operation of type " + operation.type + " not started");
+            if (failed == null) failed = new ArrayList<>(1);
+            failed.add(operation);
+        }
+        return failed;
+    }
+}
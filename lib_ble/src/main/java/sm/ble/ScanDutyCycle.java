@@ -0,0 +1,95 @@
+package sm.ble;
+
+/**
+ * 自适应扫描占空比。断开连接或开始连接后先以低延迟模式持续扫描一段时间，
+ * 之后按扫描参数的模式间歇扫描，间隔逐次翻倍直到最大间隔
+ *
+ * <pre>
+ * |&lt;- burst(LOW_LATENCY) -&gt;|&lt;-window-&gt;    |&lt;-window-&gt;            |&lt;-window-&gt; ...
+ *                         |&lt;- interval -&gt;|&lt;- interval * 2    -&gt;|
+ * </pre>
+ *
+ * 每个扫描窗口都要启动一次扫描，间隔应大于{@link ScanGovernor}允许的平均启动间隔
+ *
+ * @see BluetoothScanner#setDutyCycle(ScanDutyCycle)
+ */
+public final class ScanDutyCycle {
+    private final long burstMillis;
+    private final long windowMillis;
+    private final long intervalMillis;
+    private final long maxIntervalMillis;
+
+    /**
+     * @param burstMillis       低延迟扫描时长
+     * @param windowMillis      间歇扫描的扫描时长
+     * @param intervalMillis    间歇扫描的初始间隔
+     * @param maxIntervalMillis 间歇扫描的最大间隔
+     */
+    public ScanDutyCycle(long burstMillis, long windowMillis, long intervalMillis, long maxIntervalMillis) {
+        if (burstMillis < 0) throw new IllegalArgumentException("burstMillis must not be negative");
+        if (windowMillis <= 0) throw new IllegalArgumentException("windowMillis must be greater than 0");
+        if (intervalMillis < windowMillis) throw new IllegalArgumentException("intervalMillis must not be less than windowMillis");
+        if (maxIntervalMillis < intervalMillis) throw new IllegalArgumentException("maxIntervalMillis must not be less than intervalMillis");
+        this.burstMillis = burstMillis;
+        this.windowMillis = windowMillis;
+        this.intervalMillis = intervalMillis;
+        this.maxIntervalMillis = maxIntervalMillis;
+    }
+
+    /**
+     * 低延迟扫描15秒，之后每次扫描5秒，间隔从30秒逐渐增加到5分钟
+     *
+     * @return ScanDutyCycle
+     */
+    public static ScanDutyCycle createDefault() {
+        return new ScanDutyCycle(15 * 1000, 5 * 1000, 30 * 1000, 5 * 60 * 1000);
+    }
+
+    /**
+     * 是否处于低延迟扫描阶段
+     *
+     * @param elapsedMillis 距离触发的时间
+     * @return 是否处于低延迟扫描阶段
+     */
+    public boolean isBurst(long elapsedMillis) {
+        return elapsedMillis < burstMillis;
+    }
+
+    /**
+     * 是否应该扫描
+     *
+     * @param elapsedMillis 距离触发的时间
+     * @return 是否应该扫描
+     */
+    public boolean isScanning(long elapsedMillis) {
+        if (isBurst(elapsedMillis)) return true;
+        long[] cycle = cycleAt(elapsedMillis - burstMillis);
+        return cycle[0] < windowMillis;
+    }
+
+    /**
+     * 获取距离下次状态变化的时间
+     *
+     * @param elapsedMillis 距离触发的时间
+     * @return 毫秒数
+     */
+    public long getNextChange(long elapsedMillis) {
+        if (isBurst(elapsedMillis)) return burstMillis - elapsedMillis;
+        long[] cycle = cycleAt(elapsedMillis - burstMillis);
+        long offset = cycle[0];
+        return offset < windowMillis ? windowMillis - offset : cycle[1] - offset;
+    }
+
+    /**
+     * @return {所在周期内的偏移, 所在周期的间隔}
+     */
+    private long[] cycleAt(long time) {
+        long interval = intervalMillis;
+        while (interval < maxIntervalMillis) {
+            if (time < interval) return new long[]{time, interval};
+            time -= interval;
+            interval = Math.min(interval * 2, maxIntervalMillis);
+        }
+        return new long[]{time % maxIntervalMillis, maxIntervalMillis};
+    }
+}
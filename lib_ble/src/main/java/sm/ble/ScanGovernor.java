@@ -0,0 +1,83 @@
+package sm.ble;
+
+import android.os.SystemClock;
+
+/**
+ * 扫描频率限制。系统限制每个应用30秒内最多启动5次扫描，超出后扫描不报错但收不到任何结果，
+ * 启动扫描前先询问需要等待的时间
+ *
+ * @see BluetoothScanner
+ */
+public final class ScanGovernor {
+    public static final int DEFAULT_MAX_STARTS = 5;
+    /**
+     * 略大于系统的30秒，抵消计时误差
+     */
+    public static final long DEFAULT_WINDOW_MILLIS = 31 * 1000;
+    private final long[] startTimes;
+    private final long windowMillis;
+    private final Clock clock;
+    private int head;
+    private int count;
+
+    public ScanGovernor() {
+        this(DEFAULT_MAX_STARTS, DEFAULT_WINDOW_MILLIS, SystemClock::elapsedRealtime);
+    }
+
+    /**
+     * @param maxStarts    时间窗口内最多启动次数
+     * @param windowMillis 时间窗口
+     * @param clock        时钟
+     */
+    public ScanGovernor(int maxStarts, long windowMillis, Clock clock) {
+        if (maxStarts <= 0) throw new IllegalArgumentException("maxStarts must be greater than 0");
+        if (windowMillis < 0) throw new IllegalArgumentException("windowMillis must not be negative");
+        this.startTimes = new long[maxStarts];
+        this.windowMillis = windowMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * 获取距离下次允许启动扫描的时间
+     *
+     * @return 需要等待的毫秒数，0为可以立即启动
+     */
+    public synchronized long getStartDelay() {
+        if (count < startTimes.length) return 0;
+        long delay = startTimes[head] + windowMillis - clock.now();
+        return Math.max(delay, 0);
+    }
+
+    /**
+     * 记录一次扫描启动
+     */
+    public synchronized void onStarted() {
+        startTimes[(head + count) % startTimes.length] = clock.now();
+        if (count < startTimes.length) count++;
+        else head = (head + 1) % startTimes.length;
+    }
+
+    /**
+     * 获取时间窗口内的启动次数
+     *
+     * @return 启动次数
+     */
+    public synchronized int getStartCount() {
+        long now = clock.now();
+        int result = 0;
+        for (int i = 0; i < count; i++) {
+            if (now - startTimes[(head + i) % startTimes.length] < windowMillis) result++;
+        }
+        return result;
+    }
+
+    /**
+     * 时钟，测试时可替换为手动推进的时钟
+     */
+    public interface Clock {
+        /**
+         * @return 单调递增的毫秒数
+         */
+        long now();
+    }
+}
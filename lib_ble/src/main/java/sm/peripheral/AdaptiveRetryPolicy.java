@@ -0,0 +1,63 @@
+package sm.peripheral;
+
+/**
+ * 自适应重试策略。按指令类型统计应答耗时（平滑RTT及偏差），超时取 srtt + 4 * rttvar，
+ * 重试时超时翻倍；仅首次发送即应答的样本参与统计，避免重试造成的歧义
+ */
+public class AdaptiveRetryPolicy implements RetryPolicy {
+    private final int maxAttempts;
+    private final long minTimeoutMillis;
+    private final long maxTimeoutMillis;
+    private final long initialTimeoutMillis;
+    private final double[] smoothedRtts = new double[256];
+    private final double[] rttVariances = new double[256];
+    private final boolean[] sampled = new boolean[256];
+
+    public AdaptiveRetryPolicy(int maxAttempts, long minTimeoutMillis, long maxTimeoutMillis) {
+        this(maxAttempts, minTimeoutMillis, maxTimeoutMillis, 1000);
+    }
+
+    /**
+     * @param maxAttempts          最大发送次数
+     * @param minTimeoutMillis     超时下限
+     * @param maxTimeoutMillis     超时上限
+     * @param initialTimeoutMillis 尚无统计样本时的超时
+     */
+    public AdaptiveRetryPolicy(int maxAttempts, long minTimeoutMillis, long maxTimeoutMillis, long initialTimeoutMillis) {
+        if (maxAttempts <= 0) throw new IllegalArgumentException("maxAttempts must be greater than 0");
+        if (minTimeoutMillis > maxTimeoutMillis) throw new IllegalArgumentException("minTimeoutMillis must not be greater than maxTimeoutMillis");
+        this.maxAttempts = maxAttempts;
+        this.minTimeoutMillis = minTimeoutMillis;
+        this.maxTimeoutMillis = maxTimeoutMillis;
+        this.initialTimeoutMillis = initialTimeoutMillis;
+    }
+
+    @Override
+    public int getMaxAttempts(DataPacket command) {
+        return maxAttempts;
+    }
+
+    @Override
+    public synchronized long getTimeoutMillis(DataPacket command, int attempt) {
+        int index = DataPacket.byte2int(command.getType());
+        double timeoutMillis = sampled[index]
+                ? smoothedRtts[index] + 4 * rttVariances[index]
+                : initialTimeoutMillis;
+        timeoutMillis = Math.max(timeoutMillis, minTimeoutMillis) * (1L << Math.min(attempt - 1, 16));
+        return (long) Math.min(timeoutMillis, maxTimeoutMillis);
+    }
+
+    @Override
+    public synchronized void onReplied(DataPacket command, int attempt, long rttMillis) {
+        if (attempt != 1) return;
+        int index = DataPacket.byte2int(command.getType());
+        if (!sampled[index]) {
+            smoothedRtts[index] = rttMillis;
+            rttVariances[index] = rttMillis / 2.0;
+            sampled[index] = true;
+        } else {
+            rttVariances[index] = 0.75 * rttVariances[index] + 0.25 * Math.abs(smoothedRtts[index] - rttMillis);
+            smoothedRtts[index] = 0.875 * smoothedRtts[index] + 0.125 * rttMillis;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package sm.peripheral;
+
+import androidx.annotation.Nullable;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 特征值缓存。每个值有独立的有效期，用于固件版本等很少变化的属性
+ */
+public final class AttributeCache {
+    private final ConcurrentHashMap<UUID, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * 获取未过期的值
+     *
+     * @param uuid 特征UUID
+     * @return 值的副本，不存在或已过期时返回null
+     */
+    @Nullable
+    public byte[] get(UUID uuid) {
+        Entry entry = entries.get(uuid);
+        if (entry == null) return null;
+        if (System.nanoTime() - entry.expiresAt >= 0) {
+            entries.remove(uuid, entry);
+            return null;
+        }
+        return entry.value.clone();
+    }
+
+    /**
+     * 缓存值
+     *
+     * @param uuid      特征UUID
+     * @param value     值
+     * @param ttlMillis 有效期，不大于0时不缓存
+     */
+    public void put(UUID uuid, byte[] value, long ttlMillis) {
+        if (ttlMillis <= 0) return;
+        entries.put(uuid, new Entry(value.clone(), System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMillis)));
+    }
+
+    public void invalidate(UUID uuid) {
+        entries.remove(uuid);
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    private static final class Entry {
+        final byte[] value;
+        final long expiresAt;
+
+        Entry(byte[] value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
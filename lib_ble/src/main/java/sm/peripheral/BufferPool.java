@@ -0,0 +1,62 @@
+package sm.peripheral;
+
+/**
+ * 应答数据包装对象池。只复用{@link PooledBuffer}对象，数据数组直接使用协议栈交出的数组，不复制
+ *
+ * @see PooledBuffer
+ */
+public final class BufferPool {
+    private static final BufferPool instance = new BufferPool(256);
+    private final int maxPooled;
+    private PooledBuffer head;
+    private int pooled;
+
+    /**
+     * @param maxPooled 最多缓存的包装对象数量
+     */
+    public BufferPool(int maxPooled) {
+        if (maxPooled < 0) throw new IllegalArgumentException("maxPooled must not be negative");
+        this.maxPooled = maxPooled;
+    }
+
+    public static BufferPool getInstance() {
+        return instance;
+    }
+
+    /**
+     * 包装数组，不复制，引用计数为1。包装后调用者不可再修改数组
+     *
+     * @param data 数据
+     * @return 缓冲区
+     */
+    public PooledBuffer wrap(byte[] data) {
+        PooledBuffer buffer = poll();
+        buffer.init(data, data.length);
+        return buffer;
+    }
+
+    /**
+     * 获取当前缓存的包装对象数量
+     *
+     * @return 数量
+     */
+    public synchronized int getPooledCount() {
+        return pooled;
+    }
+
+    private synchronized PooledBuffer poll() {
+        PooledBuffer buffer = head;
+        if (buffer == null) return new PooledBuffer(this);
+        head = buffer.next;
+        buffer.next = null;
+        pooled--;
+        return buffer;
+    }
+
+    synchronized void recycle(PooledBuffer buffer) {
+        if (pooled >= maxPooled) return;
+        buffer.next = head;
+        head = buffer;
+        pooled++;
+    }
+}
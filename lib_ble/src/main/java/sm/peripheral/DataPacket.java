@@ -2,62 +2,156 @@ package sm.peripheral;
 
 import androidx.annotation.NonNull;
 
-import java.math.BigInteger;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 public abstract class DataPacket {
     protected final byte[] data;
+    protected final int offset;
+    protected final int length;
+    private int hash;
 
     protected DataPacket(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    /**
+     * 基于数组区间的视图，不复制数据
+     *
+     * @param data   数组
+     * @param offset 起始位置
+     * @param length 长度
+     */
+    protected DataPacket(byte[] data, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IndexOutOfBoundsException("offset=" + offset + ", length=" + length + ", size=" + data.length);
+        }
         this.data = data;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * 基于ByteBuffer剩余数据(position到limit)的视图。堆内缓冲区不复制数据，直接缓冲区复制一次。
+     * 不改变buffer的position，创建后不应再修改视图范围内的数据
+     *
+     * @param buffer 缓冲区
+     */
+    protected DataPacket(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            this.data = buffer.array();
+            this.offset = buffer.arrayOffset() + buffer.position();
+        } else {
+            this.data = new byte[buffer.remaining()];
+            this.offset = 0;
+            buffer.duplicate().get(data);
+        }
+        this.length = buffer.remaining();
     }
 
     public DataPacket(String[] hex) {
         data = new byte[hex.length];
+        offset = 0;
+        length = data.length;
         for (int i = 0; i < hex.length; i++) {
-            data[i] = int2byte(Integer.parseInt(hex[i], 16));
+            data[i] = int2byte(HexCodec.decodeInt(hex[i]));
         }
     }
 
     public DataPacket(String hex) {
         this.data = hex2bytes(hex);
+        this.offset = 0;
+        this.length = data.length;
     }
 
+    /**
+     * 获取数据。视图只覆盖数组的一部分时返回副本
+     *
+     * @return 数据
+     */
     public byte[] getData() {
-        return data;
+        if (offset == 0 && length == data.length) return data;
+        return Arrays.copyOfRange(data, offset, offset + length);
+    }
+
+    /**
+     * 获取数据长度
+     *
+     * @return 长度
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * 获取指定位置的字节
+     *
+     * @param index 相对数据起始的位置
+     * @return 字节
+     */
+    public byte getByte(int index) {
+        if (index < 0 || index >= length) throw new IndexOutOfBoundsException("index=" + index + ", length=" + length);
+        return data[offset + index];
+    }
+
+    /**
+     * 获取只读的ByteBuffer视图，不复制数据
+     *
+     * @return 只读缓冲区
+     */
+    public ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(data, offset, length).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * 写入缓冲区，不产生中间数组
+     *
+     * @param buffer 目标缓冲区
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.put(data, offset, length);
+    }
+
+    /**
+     * 写入输出流，不产生中间数组
+     *
+     * @param out 输出流
+     * @throws IOException 写入失败
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(data, offset, length);
     }
 
     public String getDataHex() {
-        return bytes2hex(data, " ");
+        char[] out = new char[HexCodec.encodedLength(length, " ")];
+        HexCodec.encode(data, offset, length, " ", out, 0);
+        return new String(out);
+    }
+
+    /**
+     * 追加数据的十六进制形式，不产生中间字符串
+     *
+     * @param builder 目标
+     * @return builder
+     */
+    public StringBuilder appendDataHex(StringBuilder builder) {
+        return HexCodec.encode(data, offset, length, " ", builder);
     }
 
     public abstract byte getType();
 
     private byte[] hex2bytes(String hex) {
-        hex = hex.replace(" ", "");
-        int l = hex.length();
-        byte[] data = new byte[l / 2];
-        for (int i = 0; i < l; i += 2) {
-            data[i / 2] = (byte) ((Character.digit(hex.charAt(i), 16) << 4)
-                    + Character.digit(hex.charAt(i + 1), 16));
-        }
-        return data;
+        return HexCodec.decode(hex);
     }
 
     public static String bytes2hex(byte[] data, String separator) {
-        StringBuilder builder = new StringBuilder();
-        for (byte datum : data) {
-            String s = byte2hex(datum);
-            builder.append(s);
-            builder.append(separator);
-        }
-        return builder.toString();
+        return HexCodec.encode(data, separator);
     }
 
     protected static String byte2hex(byte value) {
-        int newValue = value;
-        if (newValue < 0) newValue += 256;
-        return int2hex(newValue);
+        return HexCodec.encode(value & 0xFF, 2);
     }
 
     protected static String int2hex(int value) {
@@ -65,11 +159,11 @@ public abstract class DataPacket {
     }
 
     protected static String int2hex(int value, int X) {
-        return String.format("%0" + X + "X", value);
+        return HexCodec.encode(value, X);
     }
 
     protected static int hex2int(String hex) {
-        return new BigInteger(hex, 16).intValue();
+        return HexCodec.decodeInt(hex);
     }
 
     protected static byte int2byte(int value) {
@@ -85,17 +179,31 @@ public abstract class DataPacket {
         if (this == o) return true;
         if (o == null) return false;
         DataPacket that = (DataPacket) o;
-        return Arrays.equals(data, that.data);
+        if (length != that.length || hashCode() != that.hashCode()) return false;
+        for (int i = 0; i < length; i++) {
+            if (data[offset + i] != that.data[that.offset + i]) return false;
+        }
+        return true;
     }
 
     @Override
     public int hashCode() {
-        return Arrays.hashCode(data);
+        int hash = this.hash;
+        if (hash == 0) {
+            hash = 1;
+            for (int i = offset; i < offset + length; i++) {
+                hash = 31 * hash + data[i];
+            }
+            this.hash = hash;
+        }
+        return hash;
     }
 
     @NonNull
     @Override
     public String toString() {
-        return getClass().getSimpleName() + ": " + getDataHex();
+        String name = getClass().getSimpleName();
+        StringBuilder builder = new StringBuilder(name.length() + 2 + HexCodec.encodedLength(length, " "));
+        return appendDataHex(builder.append(name).append(": ")).toString();
     }
 }
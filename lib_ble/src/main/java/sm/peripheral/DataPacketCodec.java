@@ -0,0 +1,827 @@
+package sm.peripheral;
+
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 二进制帧编解码。按字段描述帧结构：帧头、类型、整数(大小端)、长度、字节、校验(CRC8/CRC16/累加和)。
+ * 编解码器不可变，可在多个线程共享；{@link Encoder}、{@link Decoder}可复用但非线程安全
+ *
+ * <pre>
+ * DataPacketCodec codec = new DataPacketCodec.Builder()
+ *         .header(0xAA)
+ *         .type()
+ *         .length(1, ByteOrder.BIG_ENDIAN)
+ *         .uint16(ByteOrder.LITTLE_ENDIAN)
+ *         .bytes()
+ *         .crc8()
+ *         .build();
+ * </pre>
+ *
+ * @see #newEncoder()
+ * @see #newDecoder()
+ */
+public final class DataPacketCodec {
+    private static final int KIND_HEADER = 0;
+    private static final int KIND_TYPE = 1;
+    private static final int KIND_LENGTH = 2;
+    private static final int KIND_INT = 3;
+    private static final int KIND_BYTES = 4;
+    private static final int KIND_CHECK = 5;
+    private static final int[] CRC8_TABLE = new int[256];
+    private static final int[] CRC16_CCITT_TABLE = new int[256];
+    private static final int[] CRC16_MODBUS_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc8 = i;
+            int ccitt = i << 8;
+            int modbus = i;
+            for (int j = 0; j < 8; j++) {
+                crc8 = (crc8 & 0x80) != 0 ? (crc8 << 1) ^ 0x07 : crc8 << 1;
+                ccitt = (ccitt & 0x8000) != 0 ? (ccitt << 1) ^ 0x1021 : ccitt << 1;
+                modbus = (modbus & 0x0001) != 0 ? (modbus >>> 1) ^ 0xA001 : modbus >>> 1;
+            }
+            CRC8_TABLE[i] = crc8 & 0xFF;
+            CRC16_CCITT_TABLE[i] = ccitt & 0xFFFF;
+            CRC16_MODBUS_TABLE[i] = modbus;
+        }
+    }
+
+    private final Field[] fields;
+    private final int fixedSize;
+    private final int valueCount;
+    private final int headerSize;
+    private final int lengthIndex;
+    private final int variableIndex;
+
+    private DataPacketCodec(List<Field> fields) {
+        this.fields = fields.toArray(new Field[0]);
+        int fixedSize = 0;
+        int valueCount = 0;
+        int headerSize = 0;
+        int lengthIndex = -1;
+        int variableIndex = -1;
+        boolean leading = true;
+        for (int i = 0; i < this.fields.length; i++) {
+            Field field = this.fields[i];
+            fixedSize += field.size;
+            if (field.kind == KIND_HEADER && leading) headerSize += field.size;
+            else leading = false;
+            if (field.kind == KIND_INT || field.kind == KIND_BYTES) field.value = valueCount++;
+            if (field.kind == KIND_LENGTH) lengthIndex = i;
+            if (field.kind == KIND_BYTES && field.size < 0) {
+                variableIndex = i;
+                fixedSize -= field.size;
+            }
+        }
+        this.fixedSize = fixedSize;
+        this.valueCount = valueCount;
+        this.headerSize = headerSize;
+        this.lengthIndex = lengthIndex;
+        this.variableIndex = variableIndex;
+    }
+
+    /**
+     * 创建编码器
+     *
+     * @return 编码器
+     */
+    public Encoder newEncoder() {
+        return new Encoder();
+    }
+
+    /**
+     * 创建解码器
+     *
+     * @return 解码器
+     */
+    public Decoder newDecoder() {
+        return new Decoder();
+    }
+
+    /**
+     * 获取不含变长字节的帧长度
+     *
+     * @return 固定长度
+     */
+    public int getFixedSize() {
+        return fixedSize;
+    }
+
+    private int frameSize(int variableSize) {
+        return fixedSize + variableSize;
+    }
+
+    private int lengthValue(int variableSize) {
+        Field length = fields[lengthIndex];
+        int value = length.adjustment;
+        for (int i = lengthIndex + 1; i < fields.length; i++) {
+            Field field = fields[i];
+            if (field.kind == KIND_CHECK) continue;
+            value += i == variableIndex ? variableSize : field.size;
+        }
+        return value;
+    }
+
+    private static long read(byte[] data, int position, int width, boolean littleEndian, boolean signed) {
+        long value = 0;
+        for (int i = 0; i < width; i++) {
+            int b = data[position + (littleEndian ? width - 1 - i : i)] & 0xFF;
+            value = (value << 8) | b;
+        }
+        if (signed && width < 8) {
+            int shift = 64 - width * 8;
+            value = (value << shift) >> shift;
+        }
+        return value;
+    }
+
+    private static void write(byte[] data, int position, int width, boolean littleEndian, long value) {
+        for (int i = 0; i < width; i++) {
+            int shift = 8 * (littleEndian ? i : width - 1 - i);
+            data[position + i] = (byte) (value >>> shift);
+        }
+    }
+
+    /**
+     * 校验算法
+     */
+    public enum Check {
+        /**
+         * CRC-8，多项式0x07，初值0x00
+         */
+        CRC8(1),
+        /**
+         * CRC-16/CCITT-FALSE，多项式0x1021，初值0xFFFF
+         */
+        CRC16_CCITT(2),
+        /**
+         * CRC-16/MODBUS，多项式0x8005(反射)，初值0xFFFF
+         */
+        CRC16_MODBUS(2),
+        /**
+         * 累加和，取低8位
+         */
+        SUM8(1),
+        /**
+         * 异或和
+         */
+        XOR8(1);
+
+        private final int size;
+
+        Check(int size) {
+            this.size = size;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * 计算校验值
+         *
+         * @param data   数据
+         * @param offset 起始位置
+         * @param length 长度
+         * @return 校验值
+         */
+        public int compute(byte[] data, int offset, int length) {
+            int end = offset + length;
+            int value;
+            switch (this) {
+                case CRC8:
+                    value = 0;
+                    for (int i = offset; i < end; i++) value = CRC8_TABLE[(value ^ data[i]) & 0xFF];
+                    return value;
+                case CRC16_CCITT:
+                    value = 0xFFFF;
+                    for (int i = offset; i < end; i++) value = ((value << 8) ^ CRC16_CCITT_TABLE[((value >>> 8) ^ data[i]) & 0xFF]) & 0xFFFF;
+                    return value;
+                case CRC16_MODBUS:
+                    value = 0xFFFF;
+                    for (int i = offset; i < end; i++) value = (value >>> 8) ^ CRC16_MODBUS_TABLE[(value ^ data[i]) & 0xFF];
+                    return value;
+                case SUM8:
+                    value = 0;
+                    for (int i = offset; i < end; i++) value += data[i];
+                    return value & 0xFF;
+                default:
+                    value = 0;
+                    for (int i = offset; i < end; i++) value ^= data[i];
+                    return value & 0xFF;
+            }
+        }
+    }
+
+    private static final class Field {
+        final int kind;
+        final int size;
+        final boolean littleEndian;
+        final boolean signed;
+        final byte[] constant;
+        final Check check;
+        final boolean includeHeader;
+        final int adjustment;
+        int value = -1;
+
+        Field(int kind, int size, boolean littleEndian, boolean signed, byte[] constant, Check check, boolean includeHeader, int adjustment) {
+            this.kind = kind;
+            this.size = size;
+            this.littleEndian = littleEndian;
+            this.signed = signed;
+            this.constant = constant;
+            this.check = check;
+            this.includeHeader = includeHeader;
+            this.adjustment = adjustment;
+        }
+    }
+
+    /**
+     * 帧结构构建器，字段按调用顺序排列
+     */
+    public static final class Builder {
+        private final List<Field> fields = new ArrayList<>();
+        private boolean hasType;
+        private boolean hasLength;
+        private boolean hasVariable;
+
+        /**
+         * 帧头，解码时校验
+         *
+         * @param bytes 帧头字节
+         * @return Builder
+         */
+        public Builder header(int... bytes) {
+            byte[] constant = new byte[bytes.length];
+            for (int i = 0; i < bytes.length; i++) constant[i] = (byte) bytes[i];
+            return add(new Field(KIND_HEADER, constant.length, false, false, constant, null, false, 0));
+        }
+
+        /**
+         * 类型，1字节，对应{@link DataPacket#getType()}
+         *
+         * @return Builder
+         */
+        public Builder type() {
+            if (hasType) throw new IllegalStateException("type already defined");
+            hasType = true;
+            return add(new Field(KIND_TYPE, 1, false, false, null, null, false, 0));
+        }
+
+        /**
+         * 长度，值为其后除校验外所有字段的字节数
+         *
+         * @param width 字节数，1~4
+         * @param order 字节序
+         * @return Builder
+         */
+        public Builder length(int width, ByteOrder order) {
+            return length(width, order, 0);
+        }
+
+        /**
+         * 长度，值为其后除校验外所有字段的字节数加上修正值
+         *
+         * @param width      字节数，1~4
+         * @param order      字节序
+         * @param adjustment 修正值，如长度包含校验时为校验字节数
+         * @return Builder
+         */
+        public Builder length(int width, ByteOrder order, int adjustment) {
+            if (hasLength) throw new IllegalStateException("length already defined");
+            if (hasVariable) throw new IllegalStateException("length must precede variable bytes");
+            checkWidth(width);
+            hasLength = true;
+            return add(new Field(KIND_LENGTH, width, order == ByteOrder.LITTLE_ENDIAN, false, null, null, false, adjustment));
+        }
+
+        public Builder uint8() {
+            return integer(1, ByteOrder.BIG_ENDIAN, false);
+        }
+
+        public Builder int8() {
+            return integer(1, ByteOrder.BIG_ENDIAN, true);
+        }
+
+        public Builder uint16(ByteOrder order) {
+            return integer(2, order, false);
+        }
+
+        public Builder int16(ByteOrder order) {
+            return integer(2, order, true);
+        }
+
+        public Builder uint32(ByteOrder order) {
+            return integer(4, order, false);
+        }
+
+        public Builder int32(ByteOrder order) {
+            return integer(4, order, true);
+        }
+
+        /**
+         * 整数
+         *
+         * @param width  字节数，1~4
+         * @param order  字节序
+         * @param signed 是否有符号
+         * @return Builder
+         */
+        public Builder integer(int width, ByteOrder order, boolean signed) {
+            checkWidth(width);
+            return add(new Field(KIND_INT, width, order == ByteOrder.LITTLE_ENDIAN, signed, null, null, false, 0));
+        }
+
+        /**
+         * 定长字节
+         *
+         * @param length 字节数
+         * @return Builder
+         */
+        public Builder bytes(int length) {
+            if (length < 0) throw new IllegalArgumentException("length must not be negative");
+            return add(new Field(KIND_BYTES, length, false, false, null, null, false, 0));
+        }
+
+        /**
+         * 变长字节，长度由长度字段或帧总长推算，每帧最多一个
+         *
+         * @return Builder
+         */
+        public Builder bytes() {
+            if (hasVariable) throw new IllegalStateException("variable bytes already defined");
+            hasVariable = true;
+            return add(new Field(KIND_BYTES, -1, false, false, null, null, false, 0));
+        }
+
+        /**
+         * CRC-8校验，覆盖帧头之后至校验之前的数据
+         *
+         * @return Builder
+         */
+        public Builder crc8() {
+            return check(Check.CRC8, ByteOrder.BIG_ENDIAN, false);
+        }
+
+        /**
+         * CRC-16/CCITT-FALSE校验，大端，覆盖帧头之后至校验之前的数据
+         *
+         * @return Builder
+         */
+        public Builder crc16() {
+            return check(Check.CRC16_CCITT, ByteOrder.BIG_ENDIAN, false);
+        }
+
+        /**
+         * 累加和校验，覆盖帧头之后至校验之前的数据
+         *
+         * @return Builder
+         */
+        public Builder checksum() {
+            return check(Check.SUM8, ByteOrder.BIG_ENDIAN, false);
+        }
+
+        /**
+         * 校验
+         *
+         * @param check         校验算法
+         * @param order         字节序
+         * @param includeHeader 是否覆盖帧头
+         * @return Builder
+         */
+        public Builder check(Check check, ByteOrder order, boolean includeHeader) {
+            return add(new Field(KIND_CHECK, check.size, order == ByteOrder.LITTLE_ENDIAN, false, null, check, includeHeader, 0));
+        }
+
+        public DataPacketCodec build() {
+            if (fields.isEmpty()) throw new IllegalStateException("no field defined");
+            return new DataPacketCodec(new ArrayList<>(fields));
+        }
+
+        private Builder add(Field field) {
+            fields.add(field);
+            return this;
+        }
+
+        private static void checkWidth(int width) {
+            if (width < 1 || width > 4) throw new IllegalArgumentException("width must be 1~4");
+        }
+    }
+
+    /**
+     * 编码器。按字段顺序依次写入值，编码到复用的缓冲区，非线程安全
+     */
+    public final class Encoder {
+        private final long[] ints = new long[valueCount];
+        private final byte[][] bytes = new byte[valueCount][];
+        private final int[] bytesOffsets = new int[valueCount];
+        private final int[] bytesLengths = new int[valueCount];
+        private byte[] buffer = new byte[Math.max(fixedSize, 16)];
+        private ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+        private byte type;
+        private int next;
+
+        private Encoder() {
+        }
+
+        /**
+         * 开始新的一帧
+         *
+         * @param type 类型，无类型字段时忽略
+         * @return Encoder
+         */
+        public Encoder reset(byte type) {
+            this.type = type;
+            Arrays.fill(bytes, null);
+            next = 0;
+            return this;
+        }
+
+        /**
+         * 写入下一个整数字段
+         *
+         * @param value 值，超出宽度时截断
+         * @return Encoder
+         */
+        public Encoder putInt(long value) {
+            nextField(KIND_INT);
+            ints[next++] = value;
+            return this;
+        }
+
+        /**
+         * 写入下一个字节字段
+         *
+         * @param value 字节
+         * @return Encoder
+         */
+        public Encoder putBytes(byte[] value) {
+            return putBytes(value, 0, value.length);
+        }
+
+        /**
+         * 写入下一个字节字段，编码前不复制
+         *
+         * @param value  字节
+         * @param offset 起始位置
+         * @param length 长度，定长字段须与定义一致
+         * @return Encoder
+         */
+        public Encoder putBytes(byte[] value, int offset, int length) {
+            Field field = nextField(KIND_BYTES);
+            if (field.size >= 0 && field.size != length) {
+                throw new IllegalArgumentException("expected " + field.size + " bytes but was " + length);
+            }
+            bytes[next] = value;
+            bytesOffsets[next] = offset;
+            bytesLengths[next] = length;
+            next++;
+            return this;
+        }
+
+        /**
+         * 写入下一个字节字段
+         *
+         * @param packet 数据包
+         * @return Encoder
+         */
+        public Encoder putBytes(DataPacket packet) {
+            return putBytes(packet.data, packet.offset, packet.length);
+        }
+
+        /**
+         * 编码到复用的缓冲区，下次编码前有效
+         *
+         * @return 缓冲区，position为0，limit为帧长度
+         */
+        public ByteBuffer encode() {
+            int size = encodeInternal();
+            wrapped.clear();
+            wrapped.limit(size);
+            return wrapped;
+        }
+
+        /**
+         * 编码到目标缓冲区
+         *
+         * @param out 目标缓冲区
+         * @return 写入的字节数
+         */
+        public int encode(ByteBuffer out) {
+            int size = encodeInternal();
+            out.put(buffer, 0, size);
+            return size;
+        }
+
+        /**
+         * 编码为独立的数据包，可提交到指令队列
+         *
+         * @return 数据包
+         */
+        public Packet toPacket() {
+            int size = encodeInternal();
+            return new Packet(Arrays.copyOf(buffer, size), type);
+        }
+
+        private Field nextField(int kind) {
+            if (next >= valueCount) throw new IllegalStateException("all fields already written");
+            for (Field field : fields) {
+                if (field.value == next) {
+                    if (field.kind != kind) throw new IllegalStateException("field " + next + " is not " + (kind == KIND_INT ? "an integer" : "bytes"));
+                    return field;
+                }
+            }
+            throw new IllegalStateException();
+        }
+
+        private int encodeInternal() {
+            if (next != valueCount) throw new IllegalStateException("expected " + valueCount + " fields but was " + next);
+            int variableSize = variableIndex < 0 ? 0 : bytesLengths[fields[variableIndex].value];
+            int size = frameSize(variableSize);
+            if (buffer.length < size) {
+                buffer = new byte[Math.max(size, buffer.length * 2)];
+                wrapped = ByteBuffer.wrap(buffer);
+            }
+            int position = 0;
+            for (Field field : fields) {
+                switch (field.kind) {
+                    case KIND_HEADER:
+                        System.arraycopy(field.constant, 0, buffer, position, field.size);
+                        position += field.size;
+                        break;
+                    case KIND_TYPE:
+                        buffer[position++] = type;
+                        break;
+                    case KIND_LENGTH:
+                        write(buffer, position, field.size, field.littleEndian, lengthValue(variableSize));
+                        position += field.size;
+                        break;
+                    case KIND_INT:
+                        write(buffer, position, field.size, field.littleEndian, ints[field.value]);
+                        position += field.size;
+                        break;
+                    case KIND_BYTES:
+                        int length = bytesLengths[field.value];
+                        System.arraycopy(bytes[field.value], bytesOffsets[field.value], buffer, position, length);
+                        position += length;
+                        break;
+                    default:
+                        int start = field.includeHeader ? 0 : headerSize;
+                        write(buffer, position, field.size, field.littleEndian, field.check.compute(buffer, start, position - start));
+                        position += field.size;
+                        break;
+                }
+            }
+            return position;
+        }
+    }
+
+    /**
+     * 解码器。解码结果{@link Frame}复用，下次解码前有效，非线程安全
+     */
+    public final class Decoder {
+        private final Frame frame = new Frame();
+
+        private Decoder() {
+        }
+
+        /**
+         * 解码数据包
+         *
+         * @param packet 数据包
+         * @return 帧，格式不符时返回null
+         */
+        @Nullable
+        public Frame decode(DataPacket packet) {
+            return decode(packet.data, packet.offset, packet.length);
+        }
+
+        /**
+         * 解码并转换为对象
+         *
+         * @param data   数据
+         * @param mapper 转换
+         * @return 对象，格式不符时返回null
+         */
+        @Nullable
+        public <T> T decode(byte[] data, Mapper<T> mapper) {
+            Frame frame = decode(data, 0, data.length);
+            return frame == null ? null : mapper.map(frame);
+        }
+
+        /**
+         * 解码。数据可长于一帧，帧长度见{@link Frame#getFrameLength()}
+         *
+         * @param data   数据
+         * @param offset 起始位置
+         * @param length 长度
+         * @return 帧，数据不足或格式不符时返回null
+         */
+        @Nullable
+        public Frame decode(byte[] data, int offset, int length) {
+            int size = frameLength(data, offset, length);
+            if (size < 0 || size > length) return null;
+            int variableSize = size - fixedSize;
+            frame.data = data;
+            frame.offset = offset;
+            frame.length = size;
+            frame.type = 0;
+            int position = offset;
+            for (Field field : fields) {
+                switch (field.kind) {
+                    case KIND_HEADER:
+                        for (int i = 0; i < field.size; i++) {
+                            if (data[position + i] != field.constant[i]) return null;
+                        }
+                        position += field.size;
+                        break;
+                    case KIND_TYPE:
+                        frame.type = data[position++];
+                        break;
+                    case KIND_LENGTH:
+                        position += field.size;
+                        break;
+                    case KIND_INT:
+                        frame.ints[field.value] = read(data, position, field.size, field.littleEndian, field.signed);
+                        position += field.size;
+                        break;
+                    case KIND_BYTES:
+                        int bytesLength = field.size < 0 ? variableSize : field.size;
+                        frame.bytesOffsets[field.value] = position;
+                        frame.bytesLengths[field.value] = bytesLength;
+                        position += bytesLength;
+                        break;
+                    default:
+                        int start = offset + (field.includeHeader ? 0 : headerSize);
+                        long expected = field.check.compute(data, start, position - start);
+                        if (read(data, position, field.size, field.littleEndian, false) != expected) return null;
+                        position += field.size;
+                        break;
+                }
+            }
+            return frame;
+        }
+
+        /**
+         * 计算帧长度，不校验内容
+         *
+         * @param data   数据
+         * @param offset 起始位置
+         * @param length 长度
+         * @return 帧长度；长度字段尚未完整时返回-1；长度字段非法时返回-2
+         */
+        public int frameLength(byte[] data, int offset, int length) {
+            if (lengthIndex < 0) {
+                if (variableIndex < 0) return fixedSize;
+                return length >= fixedSize ? length : -1;
+            }
+            int position = offset;
+            for (int i = 0; i < lengthIndex; i++) {
+                position += fields[i].size;
+            }
+            Field field = fields[lengthIndex];
+            if (position + field.size > offset + length) return -1;
+            long value = read(data, position, field.size, field.littleEndian, false);
+            if (variableIndex < 0) return value == lengthValue(0) ? fixedSize : -2;
+            long variableSize = value - lengthValue(0);
+            if (variableSize < 0 || variableSize > Integer.MAX_VALUE - fixedSize) return -2;
+            return frameSize((int) variableSize);
+        }
+    }
+
+    /**
+     * 解码结果，引用原始数据，不复制
+     */
+    public final class Frame {
+        private final long[] ints = new long[valueCount];
+        private final int[] bytesOffsets = new int[valueCount];
+        private final int[] bytesLengths = new int[valueCount];
+        private byte[] data;
+        private int offset;
+        private int length;
+        private byte type;
+
+        private Frame() {
+        }
+
+        public byte getType() {
+            return type;
+        }
+
+        /**
+         * 获取帧长度
+         *
+         * @return 帧长度
+         */
+        public int getFrameLength() {
+            return length;
+        }
+
+        /**
+         * 获取整数字段
+         *
+         * @param index 值字段(整数、字节)按定义顺序的序号
+         * @return 值
+         */
+        public int getInt(int index) {
+            return (int) ints[index];
+        }
+
+        /**
+         * 获取整数字段，用于uint32
+         *
+         * @param index 值字段序号
+         * @return 值
+         */
+        public long getLong(int index) {
+            return ints[index];
+        }
+
+        /**
+         * 获取字节字段长度
+         *
+         * @param index 值字段序号
+         * @return 长度
+         */
+        public int getBytesLength(int index) {
+            return bytesLengths[index];
+        }
+
+        /**
+         * 复制字节字段
+         *
+         * @param index  值字段序号
+         * @param dst    目标
+         * @param offset 目标起始位置
+         */
+        public void getBytes(int index, byte[] dst, int offset) {
+            System.arraycopy(data, bytesOffsets[index], dst, offset, bytesLengths[index]);
+        }
+
+        /**
+         * 获取字节字段副本
+         *
+         * @param index 值字段序号
+         * @return 字节
+         */
+        public byte[] getBytes(int index) {
+            return Arrays.copyOfRange(data, bytesOffsets[index], bytesOffsets[index] + bytesLengths[index]);
+        }
+
+        /**
+         * 获取字节字段的只读视图，不复制
+         *
+         * @param index 值字段序号
+         * @return 只读缓冲区
+         */
+        public ByteBuffer getBytesBuffer(int index) {
+            return ByteBuffer.wrap(data, bytesOffsets[index], bytesLengths[index]).slice().asReadOnlyBuffer();
+        }
+
+        /**
+         * 转换为独立的数据包
+         *
+         * @return 数据包
+         */
+        public Packet toPacket() {
+            return new Packet(Arrays.copyOfRange(data, offset, offset + length), type);
+        }
+    }
+
+    /**
+     * 帧转换
+     */
+    public interface Mapper<T> {
+        /**
+         * 转换
+         *
+         * @param frame 帧，仅在本次调用中有效
+         * @return 对象
+         */
+        T map(Frame frame);
+    }
+
+    /**
+     * 编解码得到的数据包
+     */
+    public static final class Packet extends DataPacket {
+        private final byte type;
+
+        private Packet(byte[] data, byte type) {
+            super(data);
+            this.type = type;
+        }
+
+        @Override
+        public byte getType() {
+            return type;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package sm.peripheral;
+
+import java.util.Arrays;
+
+/**
+ * 按分隔符组装帧
+ */
+public class DelimiterFrameAssembler extends FrameAssembler {
+    private final byte[] delimiter;
+    private final boolean stripDelimiter;
+    private final int maxFrameLength;
+    private int searchFrom;
+    /**
+     * 超长帧的前半部分已丢弃，丢弃到下一个分隔符为止
+     */
+    private boolean discarding;
+
+    /**
+     * @param delimiter      分隔符
+     * @param stripDelimiter 是否去掉帧末尾的分隔符
+     * @param maxFrameLength 最大帧长度(含分隔符)
+     */
+    public DelimiterFrameAssembler(byte[] delimiter, boolean stripDelimiter, int maxFrameLength) {
+        super(maxFrameLength);
+        if (delimiter.length == 0) throw new IllegalArgumentException("delimiter must not be empty");
+        this.delimiter = Arrays.copyOf(delimiter, delimiter.length);
+        this.stripDelimiter = stripDelimiter;
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    @Override
+    protected void decode() {
+        int index;
+        while ((index = buffer.indexOf(delimiter, searchFrom)) >= 0) {
+            searchFrom = 0;
+            if (discarding || index + delimiter.length > maxFrameLength) {
+                discarding = false;
+                Logger.w("DelimiterFrameAssembler: frame too long, discard " + (index + delimiter.length) + " bytes");
+                buffer.skip(index + delimiter.length);
+                continue;
+            }
+            if (stripDelimiter) {
+                emit(index);
+                buffer.skip(delimiter.length);
+            } else {
+                emit(index + delimiter.length);
+            }
+        }
+        if (buffer.size() >= maxFrameLength) {
+            int discard = buffer.size() - delimiter.length + 1;
+            Logger.w("DelimiterFrameAssembler: frame too long, discard " + discard + " bytes");
+            buffer.skip(discard);
+            discarding = true;
+        }
+        searchFrom = Math.max(buffer.size() - delimiter.length + 1, 0);
+    }
+
+    @Override
+    public synchronized void reset() {
+        super.reset();
+        searchFrom = 0;
+        discarding = false;
+    }
+}
@@ -0,0 +1,35 @@
+package sm.peripheral;
+
+/**
+ * 指数退避重试策略。第n次发送的超时为 initialTimeoutMillis * multiplier^(n-1)，不超过maxTimeoutMillis
+ */
+public class ExponentialRetryPolicy implements RetryPolicy {
+    private final int maxAttempts;
+    private final long initialTimeoutMillis;
+    private final double multiplier;
+    private final long maxTimeoutMillis;
+
+    public ExponentialRetryPolicy(int maxAttempts, long initialTimeoutMillis, double multiplier, long maxTimeoutMillis) {
+        if (maxAttempts <= 0) throw new IllegalArgumentException("maxAttempts must be greater than 0");
+        if (multiplier < 1) throw new IllegalArgumentException("multiplier must not be less than 1");
+        this.maxAttempts = maxAttempts;
+        this.initialTimeoutMillis = initialTimeoutMillis;
+        this.multiplier = multiplier;
+        this.maxTimeoutMillis = maxTimeoutMillis;
+    }
+
+    @Override
+    public int getMaxAttempts(DataPacket command) {
+        return maxAttempts;
+    }
+
+    @Override
+    public long getTimeoutMillis(DataPacket command, int attempt) {
+        double timeoutMillis = initialTimeoutMillis * Math.pow(multiplier, attempt - 1);
+        return (long) Math.min(timeoutMillis, maxTimeoutMillis);
+    }
+
+    @Override
+    public void onReplied(DataPacket command, int attempt, long rttMillis) {
+    }
+}
@@ -0,0 +1,29 @@
+package sm.peripheral;
+
+/**
+ * 固定超时重试策略
+ */
+public class FixedRetryPolicy implements RetryPolicy {
+    private final int maxAttempts;
+    private final long timeoutMillis;
+
+    public FixedRetryPolicy(int maxAttempts, long timeoutMillis) {
+        if (maxAttempts <= 0) throw new IllegalArgumentException("maxAttempts must be greater than 0");
+        this.maxAttempts = maxAttempts;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public int getMaxAttempts(DataPacket command) {
+        return maxAttempts;
+    }
+
+    @Override
+    public long getTimeoutMillis(DataPacket command, int attempt) {
+        return timeoutMillis;
+    }
+
+    @Override
+    public void onReplied(DataPacket command, int attempt, long rttMillis) {
+    }
+}
@@ -0,0 +1,101 @@
+package sm.peripheral;
+
+/**
+ * 帧组装器。将分片的通知数据组装为完整的帧后再交给{@link Peripheral.Messenger}，
+ * 分片数据暂存在环形缓冲区中，在接收通知的线程组装
+ *
+ * @see LengthFieldFrameAssembler
+ * @see DelimiterFrameAssembler
+ * @see TimeoutFrameAssembler
+ * @see Peripheral#setFrameAssembler(FrameAssembler)
+ */
+public abstract class FrameAssembler {
+    /**
+     * 单个分片的最大长度(特征值最大512字节)，缓冲区在最大帧长度之外预留的空间
+     */
+    public static final int MAX_FRAGMENT_LENGTH = 512;
+    protected final RingBuffer buffer;
+    private Listener listener;
+
+    /**
+     * @param maxFrameLength 最大帧长度
+     */
+    protected FrameAssembler(int maxFrameLength) {
+        this.buffer = new RingBuffer(Math.min(maxFrameLength, 256), maxFrameLength + MAX_FRAGMENT_LENGTH);
+    }
+
+    /**
+     * 设置帧监听
+     *
+     * @param listener 帧监听
+     */
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 追加分片
+     *
+     * @param fragment 分片
+     */
+    public final void append(byte[] fragment) {
+        append(fragment, 0, fragment.length);
+    }
+
+    /**
+     * 追加分片
+     *
+     * @param fragment 分片
+     * @param offset   起始位置
+     * @param length   长度
+     */
+    public synchronized void append(byte[] fragment, int offset, int length) {
+        while (length > 0) {
+            int writable = Math.min(length, buffer.getMaxCapacity() - buffer.size());
+            if (writable == 0) {
+                Logger.w(getClass().getSimpleName() + ": buffer overflow, discard " + buffer.size() + " bytes");
+                reset();
+                continue;
+            }
+            buffer.write(fragment, offset, writable);
+            offset += writable;
+            length -= writable;
+            decode();
+        }
+    }
+
+    /**
+     * 丢弃未组装完成的数据，断开连接时调用
+     */
+    public synchronized void reset() {
+        buffer.clear();
+    }
+
+    /**
+     * 从缓冲区中解析帧，每解析出一帧调用{@link #emit(int)}
+     */
+    protected abstract void decode();
+
+    /**
+     * 从缓冲区取出一帧并回调
+     *
+     * @param length 帧长度
+     */
+    protected final void emit(int length) {
+        byte[] frame = buffer.read(length);
+        Listener listener = this.listener;
+        if (listener != null) listener.onFrame(frame);
+    }
+
+    /**
+     * 帧监听
+     */
+    public interface Listener {
+        /**
+         * 组装出完整的帧
+         *
+         * @param frame 帧
+         */
+        void onFrame(byte[] frame);
+    }
+}
@@ -0,0 +1,171 @@
+package sm.peripheral;
+
+import java.io.IOException;
+
+/**
+ * 十六进制编解码。基于查表，编码可直接写入{@link Appendable}或char[]，解码不产生中间字符串
+ */
+public final class HexCodec {
+    private static final char[] DIGITS = "0123456789ABCDEF".toCharArray();
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        for (int i = 0; i < VALUES.length; i++) {
+            VALUES[i] = -1;
+        }
+        for (int i = 0; i < 10; i++) {
+            VALUES['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            VALUES['A' + i] = (byte) (10 + i);
+            VALUES['a' + i] = (byte) (10 + i);
+        }
+    }
+
+    private HexCodec() {
+    }
+
+    /**
+     * 编码后的字符数
+     *
+     * @param length    字节数
+     * @param separator 每个字节后追加的分隔符
+     * @return 字符数
+     */
+    public static int encodedLength(int length, CharSequence separator) {
+        return length * (2 + separator.length());
+    }
+
+    /**
+     * 编码到char[]，每个字节后追加分隔符
+     *
+     * @return 写入的字符数
+     */
+    public static int encode(byte[] data, int offset, int length, CharSequence separator, char[] out, int outOffset) {
+        int position = outOffset;
+        int separatorLength = separator.length();
+        for (int i = offset; i < offset + length; i++) {
+            int value = data[i] & 0xFF;
+            out[position++] = DIGITS[value >>> 4];
+            out[position++] = DIGITS[value & 0x0F];
+            for (int j = 0; j < separatorLength; j++) {
+                out[position++] = separator.charAt(j);
+            }
+        }
+        return position - outOffset;
+    }
+
+    /**
+     * 编码到StringBuilder，每个字节后追加分隔符
+     */
+    public static StringBuilder encode(byte[] data, int offset, int length, CharSequence separator, StringBuilder out) {
+        out.ensureCapacity(out.length() + encodedLength(length, separator));
+        for (int i = offset; i < offset + length; i++) {
+            int value = data[i] & 0xFF;
+            out.append(DIGITS[value >>> 4]).append(DIGITS[value & 0x0F]).append(separator);
+        }
+        return out;
+    }
+
+    /**
+     * 编码到Appendable，每个字节后追加分隔符
+     */
+    public static void encode(byte[] data, int offset, int length, CharSequence separator, Appendable out) throws IOException {
+        if (out instanceof StringBuilder) {
+            encode(data, offset, length, separator, (StringBuilder) out);
+            return;
+        }
+        for (int i = offset; i < offset + length; i++) {
+            int value = data[i] & 0xFF;
+            out.append(DIGITS[value >>> 4]).append(DIGITS[value & 0x0F]).append(separator);
+        }
+    }
+
+    /**
+     * 编码为字符串，每个字节后追加分隔符
+     */
+    public static String encode(byte[] data, CharSequence separator) {
+        char[] out = new char[encodedLength(data.length, separator)];
+        encode(data, 0, data.length, separator, out, 0);
+        return new String(out);
+    }
+
+    /**
+     * 编码为定长大写十六进制字符串，不足时高位补0
+     *
+     * @param value  数值
+     * @param digits 位数
+     * @return 十六进制字符串
+     */
+    public static String encode(int value, int digits) {
+        int length = Math.max(digits, 8 - Integer.numberOfLeadingZeros(value) / 4);
+        char[] out = new char[Math.max(length, 1)];
+        for (int i = out.length - 1; i >= 0; i--) {
+            out[i] = DIGITS[value & 0x0F];
+            value >>>= 4;
+        }
+        return new String(out);
+    }
+
+    /**
+     * 解码十六进制字符串，忽略空白字符，末尾落单的字符被忽略
+     *
+     * @param hex 十六进制字符串，如"AA 01 0F"
+     * @return 字节数组
+     * @throws NumberFormatException 包含非十六进制字符
+     */
+    public static byte[] decode(CharSequence hex) {
+        int digits = 0;
+        for (int i = 0; i < hex.length(); i++) {
+            if (!isWhitespace(hex.charAt(i))) digits++;
+        }
+        byte[] data = new byte[digits / 2];
+        int high = -1;
+        int position = 0;
+        for (int i = 0; i < hex.length() && position < data.length; i++) {
+            char c = hex.charAt(i);
+            if (isWhitespace(c)) continue;
+            int value = digit(c, hex);
+            if (high < 0) {
+                high = value;
+            } else {
+                data[position++] = (byte) ((high << 4) | value);
+                high = -1;
+            }
+        }
+        return data;
+    }
+
+    /**
+     * 解码十六进制数，取低32位，与{@code new BigInteger(hex, 16).intValue()}一致
+     *
+     * @param hex 十六进制数，可带正负号
+     * @return 数值
+     * @throws NumberFormatException 格式错误
+     */
+    public static int decodeInt(CharSequence hex) {
+        int length = hex.length();
+        int start = 0;
+        boolean negative = false;
+        if (length > 0 && (hex.charAt(0) == '-' || hex.charAt(0) == '+')) {
+            negative = hex.charAt(0) == '-';
+            start = 1;
+        }
+        if (start == length) throw new NumberFormatException("Zero length hex: \"" + hex + "\"");
+        int value = 0;
+        for (int i = start; i < length; i++) {
+            value = (value << 4) | digit(hex.charAt(i), hex);
+        }
+        return negative ? -value : value;
+    }
+
+    private static int digit(char c, CharSequence hex) {
+        int value = c < VALUES.length ? VALUES[c] : -1;
+        if (value < 0) throw new NumberFormatException("Illegal hex character '" + c + "' in \"" + hex + "\"");
+        return value;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+}
@@ -0,0 +1,52 @@
+package sm.peripheral;
+
+import java.nio.ByteOrder;
+
+/**
+ * 按长度字段组装帧。帧长度 = 长度字段偏移 + 长度字段宽度 + 长度值 + 修正值
+ */
+public class LengthFieldFrameAssembler extends FrameAssembler {
+    private final int lengthOffset;
+    private final int lengthWidth;
+    private final boolean littleEndian;
+    private final int adjustment;
+    private final int maxFrameLength;
+
+    /**
+     * @param lengthOffset   长度字段偏移
+     * @param lengthWidth    长度字段宽度，1~4
+     * @param order          长度字段字节序
+     * @param adjustment     修正值，如长度值不含校验时为校验字节数
+     * @param maxFrameLength 最大帧长度，超出时丢弃1字节重新同步
+     */
+    public LengthFieldFrameAssembler(int lengthOffset, int lengthWidth, ByteOrder order, int adjustment, int maxFrameLength) {
+        super(maxFrameLength);
+        if (lengthOffset < 0) throw new IllegalArgumentException("lengthOffset must not be negative");
+        if (lengthWidth < 1 || lengthWidth > 4) throw new IllegalArgumentException("lengthWidth must be 1~4");
+        this.lengthOffset = lengthOffset;
+        this.lengthWidth = lengthWidth;
+        this.littleEndian = order == ByteOrder.LITTLE_ENDIAN;
+        this.adjustment = adjustment;
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    @Override
+    protected void decode() {
+        int headerLength = lengthOffset + lengthWidth;
+        while (buffer.size() >= headerLength) {
+            long value = 0;
+            for (int i = 0; i < lengthWidth; i++) {
+                int index = lengthOffset + (littleEndian ? lengthWidth - 1 - i : i);
+                value = (value << 8) | (buffer.get(index) & 0xFF);
+            }
+            long frameLength = headerLength + value + adjustment;
+            if (frameLength < headerLength || frameLength > maxFrameLength) {
+                Logger.w("LengthFieldFrameAssembler: illegal frame length " + frameLength);
+                buffer.skip(1);
+                continue;
+            }
+            if (buffer.size() < frameLength) return;
+            emit((int) frameLength);
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package sm.peripheral;
+
+/**
+ * 标记接口。实现此接口的{@link Peripheral.Messenger}、{@link Peripheral.ConnectCallback}等回调总是在主线程执行，
+ * 未实现时在设备所属的事件线程执行
+ */
+public interface MainThreadDelivery {
+}
@@ -0,0 +1,55 @@
+package sm.peripheral;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 多生产者单消费者无锁队列。offer、offerAll可在任意线程并发调用，offerAll的元素连续入队；poll只允许一个消费者调用
+ */
+final class MpscQueue<E> {
+    private final AtomicReference<Node<E>> head;
+    private Node<E> tail;
+
+    MpscQueue() {
+        Node<E> stub = new Node<>(null);
+        head = new AtomicReference<>(stub);
+        tail = stub;
+    }
+
+    void offer(E value) {
+        Node<E> node = new Node<>(value);
+        Node<E> previous = head.getAndSet(node);
+        previous.next = node;
+    }
+
+    void offerAll(List<? extends E> values) {
+        if (values.isEmpty()) return;
+        Node<E> first = new Node<>(values.get(0));
+        Node<E> last = first;
+        for (int i = 1; i < values.size(); i++) {
+            Node<E> node = new Node<>(values.get(i));
+            last.next = node;
+            last = node;
+        }
+        Node<E> previous = head.getAndSet(last);
+        previous.next = first;
+    }
+
+    E poll() {
+        Node<E> next = tail.next;
+        if (next == null) return null;
+        E value = next.value;
+        next.value = null;
+        tail = next;
+        return value;
+    }
+
+    private static final class Node<E> {
+        private E value;
+        private volatile Node<E> next;
+
+        private Node(E value) {
+            this.value = value;
+        }
+    }
+}
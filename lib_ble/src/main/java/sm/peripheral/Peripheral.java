@@ -2,7 +2,9 @@ package sm.peripheral;
 
 import androidx.annotation.NonNull;
 
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * 设备实体。包含基本信息，以及处理连接、通讯
@@ -13,10 +15,17 @@ import java.util.Objects;
  * @see #setMessenger(Messenger)  用于指令应答
  */
 public abstract class Peripheral {
+    /**
+     * 默认MTU，有效载荷为20字节
+     */
+    public static final int DEFAULT_MTU = 23;
     protected final String name;
     protected final String address;
     protected Messenger messenger;
+    protected FrameAssembler frameAssembler;
+    protected volatile int mtu = DEFAULT_MTU;
     private PeripheralController controller;
+    private final List<CloseListener> closeListeners = new CopyOnWriteArrayList<>();
 
     public Peripheral(String name, String address) {
         this.name = name;
@@ -78,7 +87,25 @@ public abstract class Peripheral {
     }
 
     /**
-     * 设置信使，接收应答
+     * 获取协商后的MTU，未连接时为{@link #DEFAULT_MTU}
+     *
+     * @return MTU
+     */
+    public int getMtu() {
+        return mtu;
+    }
+
+    /**
+     * 获取单次写入的最大字节数
+     *
+     * @return MTU - 3
+     */
+    public int getMaxPayloadSize() {
+        return mtu - 3;
+    }
+
+    /**
+     * 设置信使，接收应答。回调线程见{@link MainThreadDelivery}
      *
      * @param messenger 信使
      */
@@ -86,6 +113,37 @@ public abstract class Peripheral {
         this.messenger = messenger;
     }
 
+    /**
+     * 设置帧组装器，分片的通知组装为完整的帧后再交给信使
+     *
+     * @param frameAssembler 帧组装器，为null时每个通知单独交给信使
+     */
+    public void setFrameAssembler(FrameAssembler frameAssembler) {
+        this.frameAssembler = frameAssembler;
+    }
+
+    /**
+     * 添加连接关闭监听，断开或连接失败时回调，用于清理与连接相关的状态
+     *
+     * @param listener 监听
+     */
+    public void addCloseListener(CloseListener listener) {
+        closeListeners.add(listener);
+    }
+
+    public void removeCloseListener(CloseListener listener) {
+        closeListeners.remove(listener);
+    }
+
+    /**
+     * 连接关闭，由子类在断开或连接失败时调用
+     */
+    protected void notifyClosed() {
+        for (CloseListener listener : closeListeners) {
+            listener.onClosed(this);
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -134,6 +192,18 @@ public abstract class Peripheral {
         void onConnectFailed(Peripheral peripheral);
     }
 
+    /**
+     * 连接关闭监听
+     */
+    public interface CloseListener {
+        /**
+         * 连接已关闭，在关闭连接的线程回调
+         *
+         * @param peripheral 设备
+         */
+        void onClosed(Peripheral peripheral);
+    }
+
     /**
      * 信使
      */
@@ -145,4 +215,21 @@ public abstract class Peripheral {
          */
         void reply(byte[] data);
     }
+
+    /**
+     * 使用池化缓冲区的信使，减少高频通知的内存分配。收到的缓冲区用完后须调用{@link PooledBuffer#release()}
+     */
+    public interface PooledMessenger extends Messenger {
+        /**
+         * 收到应答
+         *
+         * @param buffer 应答数据，用完后须归还
+         */
+        void reply(PooledBuffer buffer);
+
+        @Override
+        default void reply(byte[] data) {
+            reply(PooledBuffer.wrap(data));
+        }
+    }
 }
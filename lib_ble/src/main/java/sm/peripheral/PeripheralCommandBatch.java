@@ -0,0 +1,122 @@
+package sm.peripheral;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 批量指令结果。全部指令应答、超时或取消后完成
+ *
+ * @see PeripheralCommandSetDelegate#submitBatch(List, PeripheralCommandSetDelegate.Priority, boolean, Callback)
+ */
+public class PeripheralCommandBatch {
+    private final List<PeripheralCommandFuture> futures;
+    private final boolean abortOnTimeout;
+    private final Callback callback;
+    private int completed;
+    private int replied;
+    private boolean aborted;
+
+    PeripheralCommandBatch(List<PeripheralCommandFuture> futures, boolean abortOnTimeout, Callback callback) {
+        this.futures = Collections.unmodifiableList(new ArrayList<>(futures));
+        this.abortOnTimeout = abortOnTimeout;
+        this.callback = callback;
+    }
+
+    void start() {
+        for (PeripheralCommandFuture future : futures) {
+            future.addCallback(this::onComplete);
+        }
+    }
+
+    /**
+     * 获取每条指令的结果，顺序与提交时一致
+     *
+     * @return 指令结果列表
+     */
+    public List<PeripheralCommandFuture> getFutures() {
+        return futures;
+    }
+
+    public int getTotal() {
+        return futures.size();
+    }
+
+    public synchronized int getCompletedCount() {
+        return completed;
+    }
+
+    public synchronized int getRepliedCount() {
+        return replied;
+    }
+
+    public synchronized boolean isDone() {
+        return completed == futures.size();
+    }
+
+    /**
+     * @return 是否因指令超时而中止
+     */
+    public synchronized boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * 取消未完成的指令
+     */
+    public void cancel() {
+        for (PeripheralCommandFuture future : futures) {
+            future.cancel(false);
+        }
+    }
+
+    private void onComplete(PeripheralCommandFuture future) {
+        int completed;
+        boolean abort = false;
+        synchronized (this) {
+            completed = ++this.completed;
+            if (future.isReplied()) replied++;
+            if (future.isTimeout() && abortOnTimeout && !aborted) {
+                aborted = true;
+                abort = true;
+            }
+        }
+        if (callback != null) callback.onProgress(this, completed, futures.size());
+        if (abort) cancel();
+        if (callback != null && completed == futures.size()) callback.onComplete(this);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "PeripheralCommandBatch{" +
+                "total=" + futures.size() +
+                ", completed=" + completed +
+                ", replied=" + replied +
+                ", aborted=" + aborted +
+                '}';
+    }
+
+    /**
+     * 批量指令回调，在完成指令的线程执行
+     */
+    public interface Callback {
+        /**
+         * 指令完成进度
+         *
+         * @param batch     批量指令
+         * @param completed 已完成（应答、超时或取消）的指令数
+         * @param total     指令总数
+         */
+        void onProgress(PeripheralCommandBatch batch, int completed, int total);
+
+        /**
+         * 全部指令已完成
+         *
+         * @param batch 批量指令
+         */
+        void onComplete(PeripheralCommandBatch batch);
+    }
+}
@@ -0,0 +1,191 @@
+package sm.peripheral;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 指令结果。收到应答、超时或取消时完成
+ *
+ * @see PeripheralCommandSetDelegate#submit(DataPacket)
+ */
+public class PeripheralCommandFuture implements Future<byte[]> {
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_REPLIED = 1;
+    private static final int STATE_TIMEOUT = 2;
+    private static final int STATE_CANCELLED = 3;
+    private final PeripheralCommandSetDelegate delegate;
+    private final DataPacket command;
+    private List<Callback> callbacks;
+    private int state = STATE_PENDING;
+    private byte[] reply;
+    private int attempts;
+
+    PeripheralCommandFuture(PeripheralCommandSetDelegate delegate, DataPacket command) {
+        this.delegate = delegate;
+        this.command = command;
+    }
+
+    /**
+     * 获取指令
+     *
+     * @return 指令
+     */
+    public DataPacket getCommand() {
+        return command;
+    }
+
+    /**
+     * 获取应答数据
+     *
+     * @return 应答数据。未应答或应答时未提供数据时返回null
+     */
+    @Nullable
+    public synchronized byte[] getReply() {
+        return reply;
+    }
+
+    /**
+     * 获取已发送次数
+     *
+     * @return 已发送次数
+     */
+    public synchronized int getAttempts() {
+        return attempts;
+    }
+
+    public synchronized boolean isReplied() {
+        return state == STATE_REPLIED;
+    }
+
+    public synchronized boolean isTimeout() {
+        return state == STATE_TIMEOUT;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return state == STATE_CANCELLED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return state != STATE_PENDING;
+    }
+
+    /**
+     * 取消指令。未发送时从队列移除，已发送时不再重试
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (isDone()) return false;
+        delegate.cancel(this);
+        return isCancelled();
+    }
+
+    @Override
+    public byte[] get() throws InterruptedException, ExecutionException {
+        synchronized (this) {
+            while (state == STATE_PENDING) {
+                wait();
+            }
+            return result();
+        }
+    }
+
+    @Override
+    public byte[] get(long timeout, @NonNull TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (this) {
+            while (state == STATE_PENDING) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) throw new TimeoutException();
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return result();
+        }
+    }
+
+    /**
+     * 添加完成回调，已完成时立即回调。回调在完成指令的线程执行
+     *
+     * @param callback 完成回调
+     * @return PeripheralCommandFuture
+     */
+    public PeripheralCommandFuture addCallback(Callback callback) {
+        synchronized (this) {
+            if (state == STATE_PENDING) {
+                if (callbacks == null) callbacks = new ArrayList<>(1);
+                callbacks.add(callback);
+                return this;
+            }
+        }
+        callback.onComplete(this);
+        return this;
+    }
+
+    private byte[] result() throws ExecutionException {
+        if (state == STATE_CANCELLED) throw new CancellationException(command + " cancelled");
+        if (state == STATE_TIMEOUT) throw new ExecutionException(new TimeoutException(command + " timeout after " + attempts + " attempts"));
+        return reply;
+    }
+
+    boolean replied(byte[] reply, int attempts) {
+        return complete(STATE_REPLIED, reply, attempts);
+    }
+
+    boolean timeout(int attempts) {
+        return complete(STATE_TIMEOUT, null, attempts);
+    }
+
+    boolean cancelled(int attempts) {
+        return complete(STATE_CANCELLED, null, attempts);
+    }
+
+    private boolean complete(int state, byte[] reply, int attempts) {
+        List<Callback> callbacks;
+        synchronized (this) {
+            if (this.state != STATE_PENDING) return false;
+            this.state = state;
+            this.reply = reply;
+            this.attempts = attempts;
+            callbacks = this.callbacks;
+            this.callbacks = null;
+            notifyAll();
+        }
+        if (callbacks != null) {
+            for (Callback callback : callbacks) {
+                callback.onComplete(this);
+            }
+        }
+        return true;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "PeripheralCommandFuture{" +
+                "command=" + command +
+                ", state=" + state +
+                ", attempts=" + attempts +
+                '}';
+    }
+
+    /**
+     * 完成回调
+     */
+    public interface Callback {
+        /**
+         * 指令完成
+         *
+         * @param future 指令结果，可通过{@link #isReplied()}、{@link #isTimeout()}、{@link #isCancelled()}区分
+         */
+        void onComplete(PeripheralCommandFuture future);
+    }
+}
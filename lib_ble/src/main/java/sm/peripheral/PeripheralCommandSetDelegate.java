@@ -1,108 +1,891 @@
 package sm.peripheral;
 
-import java.util.Queue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 指令发送委托。按优先级排队发送指令，等待应答，超时重试。设备连接关闭时清空未完成的指令，
+ * 不会在断开后继续重试，也不会在重连后重发旧指令。
+ * <p>
+ * 所有设备的指令发送、重试、超时判断，以及超时时的{@link TimeoutCallback}和结果回调，
+ * 都在同一个共享的{@link PeripheralScheduler}线程执行。回调中不要做耗时操作，
+ * 否则会推迟所有设备的指令发送和超时判断。应答的结果回调在调用{@link #replied(Object, byte[])}的线程执行
+ */
 public class PeripheralCommandSetDelegate {
-    private final ExecutorService executorService = Executors.newSingleThreadExecutor();
-    private final Queue<DataPacket> commandQueue = new LinkedBlockingQueue<>();
+    private static final Priority[] PRIORITIES = Priority.values();
+    private static final int STATE_QUEUED = 0;
+    private static final int STATE_SENDING = 1;
+    private static final int STATE_DONE = 2;
+    private final MpscQueue<Command> inbox = new MpscQueue<>();
+    private final ConcurrentHashMap<DataPacket, Command> commandIndex = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Object, Command> coalescingCommands = new ConcurrentHashMap<>();
+    private final AtomicBoolean sendScheduled = new AtomicBoolean();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final Object capacityLock = new Object();
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ArrayDeque<Command>[] lanes = new ArrayDeque[PRIORITIES.length];
+    private final int[] credits = new int[PRIORITIES.length];
+    private final LaneStatistics[] statistics = new LaneStatistics[PRIORITIES.length];
+    private final Map<Object, Command> inFlights = new HashMap<>();
     private final Peripheral peripheral;
-    private Runnable task;
-    private TimeoutCallback timeoutCallback;
+    private final PeripheralScheduler scheduler;
+    private final Runnable sendTask = this::sendNext;
+    private volatile RetryPolicy retryPolicy = new FixedRetryPolicy(5, 1000);
+    private volatile TimeoutCallback timeoutCallback;
+    private volatile Coalescer coalescer;
+    private volatile int capacity = Integer.MAX_VALUE;
+    private volatile OverflowPolicy overflowPolicy = OverflowPolicy.REJECT;
+    private volatile OverflowCallback overflowCallback;
+    private volatile int blockedProducers;
+    private int windowSize = 1;
 
     public PeripheralCommandSetDelegate(Peripheral peripheral) {
+        this(peripheral, PeripheralScheduler.getInstance());
+    }
+
+    public PeripheralCommandSetDelegate(Peripheral peripheral, PeripheralScheduler scheduler) {
         this.peripheral = peripheral;
+        this.scheduler = scheduler;
+        peripheral.addCloseListener(closed -> clear());
+        for (Priority priority : PRIORITIES) {
+            lanes[priority.ordinal()] = new ArrayDeque<>();
+            credits[priority.ordinal()] = priority.weight;
+            statistics[priority.ordinal()] = new LaneStatistics(priority);
+        }
     }
 
     public void setTimeoutCallback(TimeoutCallback timeoutCallback) {
         this.timeoutCallback = timeoutCallback;
     }
 
+    /**
+     * 设置重试策略，默认最多发送5次、每次等待应答1秒
+     *
+     * @param retryPolicy 重试策略
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * 设置同时等待应答的指令数，默认为1，即发送一条、应答后再发送下一条。
+     * 大于1时，关联标识{@link #getCorrelationKey(DataPacket)}不同的指令可同时发送，
+     * 关联标识相同的指令仍按顺序逐条发送
+     *
+     * @param windowSize 同时等待应答的指令数
+     */
+    public synchronized void setWindowSize(int windowSize) {
+        if (windowSize <= 0) throw new IllegalArgumentException("windowSize must be greater than 0");
+        this.windowSize = windowSize;
+        scheduleSend();
+    }
+
+    /**
+     * 开启合并。未发送的指令中已有相同合并标识的指令时，新指令直接替换旧指令，保留其排队位置和优先级；
+     * 新指令优先级更高时丢弃旧指令，新指令按自身优先级排队。适用于只需最新值生效的指令，如连续调节亮度
+     *
+     * @param coalescer 合并标识，为null时关闭合并
+     * @see Coalescer#BY_TYPE
+     */
+    public void setCoalescer(Coalescer coalescer) {
+        this.coalescer = coalescer;
+        if (coalescer == null) coalescingCommands.clear();
+    }
+
+    /**
+     * 限制排队（未发送）的指令数，默认不限制
+     *
+     * @param capacity       最大排队指令数
+     * @param overflowPolicy 队列已满时的处理策略
+     */
+    public void setCapacity(int capacity, OverflowPolicy overflowPolicy) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be greater than 0");
+        this.overflowPolicy = overflowPolicy;
+        this.capacity = capacity;
+        synchronized (capacityLock) {
+            capacityLock.notifyAll();
+        }
+    }
+
+    /**
+     * 设置溢出回调，被拒绝或被丢弃的指令通过此回调通知
+     *
+     * @param overflowCallback 溢出回调
+     */
+    public void setOverflowCallback(OverflowCallback overflowCallback) {
+        this.overflowCallback = overflowCallback;
+    }
+
+    /**
+     * 获取排队（未发送）的指令数，可用于生产方自行限流
+     *
+     * @return 排队指令数
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * 获取已发送、等待应答的指令数
+     *
+     * @return 等待应答指令数
+     */
+    public synchronized int getInFlightCount() {
+        return inFlights.size();
+    }
+
     public void set(DataPacket command) {
-        if (commandQueue.contains(command)) return;
-        commandQueue.add(command);
-        initExecutorService();
-    }
-
-    public synchronized void replied(byte type) {
-        DataPacket command = commandQueue.peek();
-        if (command == null || command.getType() != type) return;
-        commandQueue.remove(command);
-        Runnable task = this.task;
-        if (task == null) return;
-        synchronized (task) {
-            task.notify();
-        }
-    }
-
-    private synchronized void initExecutorService() {
-        if (task != null) return;
-        task = task();
-        executorService.execute(task);
-    }
-
-    private Runnable task() {
-        return new Runnable() {
-            @Override
-            public void run() {
-                while (isRunning()) {
-                    DataPacket command = commandQueue.peek();
-                    if (command == null) {
-                        synchronized (PeripheralCommandSetDelegate.this) {
-                            command = commandQueue.peek();
-                            if (command == null) {
-                                setRunningFalse();
-                            }
-                        }
-                    } else {
-                        try {
-                            synchronized (this) {
-                                if (commandQueue.peek() == command) {
-                                    peripheral.set(command);
-                                    wait(1000);
-                                }
-                                if (commandQueue.peek() == command) {
-                                    peripheral.set(command);
-                                    wait(1000);
-                                }
-                                if (commandQueue.peek() == command) {
-                                    peripheral.set(command);
-                                    wait(1000);
-                                }
-                                if (commandQueue.peek() == command) {
-                                    peripheral.set(command);
-                                    wait(1000);
-                                }
-                                if (commandQueue.peek() == command) {
-                                    peripheral.set(command);
-                                    wait(1000);
-                                }
-                                if (commandQueue.peek() == command) {
-                                    commandQueue.remove(command);
-                                    if (timeoutCallback != null) timeoutCallback.onTimeout(command);
-                                }
-                            }
-                        } catch (InterruptedException e) {
-                            setRunningFalse();
-                            initExecutorService();
-                        }
-                    }
+        set(command, Priority.NORMAL);
+    }
+
+    /**
+     * 按优先级设置指令
+     *
+     * @param command  指令
+     * @param priority 优先级
+     */
+    public void set(DataPacket command, Priority priority) {
+        enqueue(command, priority, null);
+    }
+
+    /**
+     * 提交指令，通过返回的结果获取应答数据、超时或取消
+     *
+     * @param command 指令
+     * @return 指令结果
+     * @see #replied(byte, byte[])
+     */
+    public PeripheralCommandFuture submit(DataPacket command) {
+        return submit(command, Priority.NORMAL);
+    }
+
+    /**
+     * 按优先级提交指令
+     *
+     * @param command  指令
+     * @param priority 优先级
+     * @return 指令结果
+     */
+    public PeripheralCommandFuture submit(DataPacket command, Priority priority) {
+        PeripheralCommandFuture future = new PeripheralCommandFuture(this, command);
+        enqueue(command, priority, future);
+        return future;
+    }
+
+    /**
+     * 批量设置指令，指令按顺序连续入队
+     *
+     * @param commands 指令列表
+     */
+    public void setAll(List<? extends DataPacket> commands) {
+        setAll(commands, Priority.NORMAL);
+    }
+
+    /**
+     * 按优先级批量设置指令，指令按顺序连续入队
+     *
+     * @param commands 指令列表
+     * @param priority 优先级
+     */
+    public void setAll(List<? extends DataPacket> commands, Priority priority) {
+        enqueueAll(commands, priority, null);
+    }
+
+    /**
+     * 批量提交指令，指令按顺序连续入队，通过回调获取整体进度
+     *
+     * @param commands 指令列表
+     * @param callback 批量指令回调
+     * @return 批量指令结果
+     */
+    public PeripheralCommandBatch submitBatch(List<? extends DataPacket> commands, @Nullable PeripheralCommandBatch.Callback callback) {
+        return submitBatch(commands, Priority.NORMAL, false, callback);
+    }
+
+    /**
+     * 批量提交指令，指令按顺序连续入队，通过回调获取整体进度
+     *
+     * @param commands       指令列表
+     * @param priority       优先级
+     * @param abortOnTimeout 任一指令超时时，是否取消其余未完成的指令
+     * @param callback       批量指令回调
+     * @return 批量指令结果
+     */
+    public PeripheralCommandBatch submitBatch(List<? extends DataPacket> commands, Priority priority, boolean abortOnTimeout, @Nullable PeripheralCommandBatch.Callback callback) {
+        List<PeripheralCommandFuture> futures = new ArrayList<>(commands.size());
+        for (DataPacket command : commands) {
+            futures.add(new PeripheralCommandFuture(this, command));
+        }
+        PeripheralCommandBatch batch = new PeripheralCommandBatch(futures, abortOnTimeout, callback);
+        enqueueAll(commands, priority, futures);
+        batch.start();
+        return batch;
+    }
+
+    public void replied(byte type) {
+        replied((Object) type, null);
+    }
+
+    /**
+     * 收到应答
+     *
+     * @param type  应答对应指令的类型
+     * @param reply 应答数据，用于完成{@link #submit(DataPacket)}返回的结果
+     */
+    public void replied(byte type, byte[] reply) {
+        replied((Object) type, reply);
+    }
+
+    /**
+     * 收到应答
+     *
+     * @param correlationKey 应答对应指令的关联标识，与{@link #getCorrelationKey(DataPacket)}一致
+     */
+    public void replied(Object correlationKey) {
+        replied(correlationKey, null);
+    }
+
+    /**
+     * 收到应答
+     *
+     * @param correlationKey 应答对应指令的关联标识，与{@link #getCorrelationKey(DataPacket)}一致。
+     *                       Integer、Short类型的指令类型(如replied(0x13, data))会按byte匹配默认的关联标识
+     * @param reply          应答数据，用于完成{@link #submit(DataPacket)}返回的结果
+     */
+    public void replied(Object correlationKey, byte[] reply) {
+        Command command;
+        synchronized (this) {
+            command = inFlights.remove(correlationKey);
+            if (command == null && isByteValue(correlationKey)) {
+                command = inFlights.remove(((Number) correlationKey).byteValue());
+            }
+            if (command == null) {
+                Logger.w("PeripheralCommandSetDelegate: no command waiting for reply " + correlationKey);
+                return;
+            }
+            long now = System.nanoTime();
+            retryPolicy.onReplied(command.packet, command.attempts, TimeUnit.NANOSECONDS.toMillis(now - command.attemptTime));
+            statistics[command.priority.ordinal()].onReplied(command, now);
+            command.cancel();
+        }
+        scheduleSend();
+        if (!finish(command) || command.futures == null) return;
+        for (PeripheralCommandFuture future : command.futures) {
+            future.replied(reply, command.attempts);
+        }
+    }
+
+    private static boolean isByteValue(Object key) {
+        if (!(key instanceof Integer) && !(key instanceof Short)) return false;
+        int value = ((Number) key).intValue();
+        return value >= Byte.MIN_VALUE && value <= 0xFF;
+    }
+
+    /**
+     * 清空未完成的指令并取消其结果，设备连接关闭时自动调用
+     */
+    public void clear() {
+        List<Command> commands = new ArrayList<>();
+        synchronized (this) {
+            drainInbox();
+            for (ArrayDeque<Command> lane : lanes) {
+                commands.addAll(lane);
+                lane.clear();
+            }
+            for (Command command : inFlights.values()) {
+                command.cancel();
+                commands.add(command);
+            }
+            inFlights.clear();
+        }
+        for (Command command : commands) {
+            if (finish(command)) cancelFutures(command.futures, command.attempts);
+        }
+    }
+
+    /**
+     * 获取某优先级指令的延时统计
+     *
+     * @param priority 优先级
+     * @return 统计快照
+     */
+    public synchronized LaneStatistics getStatistics(Priority priority) {
+        return statistics[priority.ordinal()].copy();
+    }
+
+    /**
+     * 获取指令的关联标识，用于匹配应答，默认为指令类型{@link DataPacket#getType()}
+     *
+     * @param command 指令
+     * @return 关联标识
+     */
+    protected Object getCorrelationKey(DataPacket command) {
+        return command.getType();
+    }
+
+    /**
+     * 取消一个结果。相同指令被去重后共用一条指令，只有没有其他结果、也没有{@link #set(DataPacket)}等待时才取消指令
+     */
+    void cancel(PeripheralCommandFuture future) {
+        Command command = commandIndex.get(future.getCommand());
+        if (command == null) return;
+        boolean unused;
+        synchronized (command) {
+            if (command.state == STATE_DONE || command.futures == null || !command.futures.remove(future)) return;
+            unused = command.futures.isEmpty() && !command.plainSent;
+        }
+        future.cancelled(command.attempts);
+        if (!unused || !finish(command)) return;
+        synchronized (this) {
+            if (inFlights.get(command.key) == command) {
+                inFlights.remove(command.key);
+                command.cancel();
+                scheduleSend();
+            }
+        }
+        cancelFutures(command.futures, command.attempts);
+    }
+
+    private void enqueue(DataPacket packet, Priority priority, PeripheralCommandFuture future) {
+        Command command = prepare(packet, priority, future, null);
+        if (command == null) return;
+        inbox.offer(command);
+        scheduleSend();
+    }
+
+    private void enqueueAll(List<? extends DataPacket> packets, Priority priority, List<PeripheralCommandFuture> futures) {
+        List<Command> commands = new ArrayList<>(packets.size());
+        for (int i = 0; i < packets.size(); i++) {
+            Command command = prepare(packets.get(i), priority, futures == null ? null : futures.get(i), commands);
+            if (command != null) commands.add(command);
+        }
+        publish(commands);
+    }
+
+    private void publish(List<Command> commands) {
+        if (commands.isEmpty()) return;
+        inbox.offerAll(commands);
+        commands.clear();
+        scheduleSend();
+    }
+
+    /**
+     * @param unpublished 批量入队时尚未发布的指令，阻塞等待空位或丢弃指令前先发布，避免占用空位而无法发送或丢弃
+     * @return 需要入队的指令。重复、被合并或被拒绝时返回null
+     */
+    private Command prepare(DataPacket packet, Priority priority, PeripheralCommandFuture future, List<Command> unpublished) {
+        Command command = new Command(packet, priority, getCorrelationKey(packet));
+        command.addFuture(future);
+        for (; ; ) {
+            Command queued = commandIndex.putIfAbsent(packet, command);
+            if (queued == null) break;
+            if (queued.addFuture(future)) return null;
+            commandIndex.remove(packet, queued);
+        }
+        Coalescer coalescer = this.coalescer;
+        Object coalescingKey = coalescer == null ? null : coalescer.getCoalescingKey(packet);
+        if (coalescingKey != null && coalesce(command, coalescingKey)) return null;
+        if (!admit(command, unpublished)) {
+            finish(command);
+            onOverflow(command);
+            return null;
+        }
+        return command;
+    }
+
+    private boolean admit(Command command, List<Command> unpublished) {
+        OverflowPolicy overflowPolicy = this.overflowPolicy;
+        if (!reserve(command)) {
+            switch (overflowPolicy) {
+                case BLOCK:
+                    if (unpublished != null) publish(unpublished);
+                    if (!awaitReserve(command)) return false;
+                    break;
+                case DROP_OLDEST:
+                case DROP_LOWEST_PRIORITY:
+                    if (unpublished != null) publish(unpublished);
+                    if (!evictAndReserve(command, overflowPolicy)) return false;
+                    break;
+                default:
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean reserve(Command command) {
+        for (; ; ) {
+            int depth = queueDepth.get();
+            if (depth >= capacity) return false;
+            if (!queueDepth.compareAndSet(depth, depth + 1)) continue;
+            synchronized (command) {
+                if (command.state == STATE_QUEUED) {
+                    command.reserved = true;
+                    return true;
+                }
+            }
+            releaseSlot();
+            return true;
+        }
+    }
+
+    private boolean awaitReserve(Command command) {
+        if (scheduler.isSchedulerThread()) return false;
+        synchronized (capacityLock) {
+            blockedProducers++;
+            try {
+                while (!reserve(command)) {
+                    capacityLock.wait();
+                }
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                blockedProducers--;
+            }
+        }
+    }
+
+    private boolean evictAndReserve(Command command, OverflowPolicy overflowPolicy) {
+        for (; ; ) {
+            Command victim = overflowPolicy == OverflowPolicy.DROP_OLDEST
+                    ? findOldest()
+                    : findLowestPriority(command.priority);
+            if (victim == null) return false;
+            if (finish(victim)) onOverflow(victim);
+            if (reserve(command)) return true;
+        }
+    }
+
+    /**
+     * 溢出时才在调度队列中查找可丢弃的指令，不溢出时入队无需加锁
+     */
+    private synchronized Command findOldest() {
+        drainInbox();
+        Command oldest = null;
+        for (ArrayDeque<Command> lane : lanes) {
+            Command command = peekQueued(lane);
+            if (command != null && (oldest == null || command.enqueueTime - oldest.enqueueTime < 0)) {
+                oldest = command;
+            }
+        }
+        return oldest;
+    }
+
+    private synchronized Command findLowestPriority(Priority priority) {
+        drainInbox();
+        for (int i = PRIORITIES.length - 1; i >= priority.ordinal(); i--) {
+            Command command = peekQueued(lanes[i]);
+            if (command != null) return command;
+        }
+        return null;
+    }
+
+    /**
+     * 丢弃队头已离开队列的指令，返回最早的排队指令。调用时需持有this的锁
+     */
+    private static Command peekQueued(ArrayDeque<Command> lane) {
+        Command command;
+        while ((command = lane.peek()) != null && command.state != STATE_QUEUED) {
+            lane.poll();
+        }
+        return command;
+    }
+
+    private void release(Command command) {
+        if (!command.reserved) return;
+        command.reserved = false;
+        releaseSlot();
+    }
+
+    private void releaseSlot() {
+        queueDepth.decrementAndGet();
+        if (blockedProducers > 0) {
+            synchronized (capacityLock) {
+                capacityLock.notifyAll();
+            }
+        }
+    }
+
+    private void onOverflow(Command command) {
+        Logger.w("PeripheralCommandSetDelegate: queue overflow, drop " + command.packet);
+        OverflowCallback overflowCallback = this.overflowCallback;
+        if (overflowCallback != null) overflowCallback.onOverflow(command.packet);
+        cancelFutures(command.futures, 0);
+    }
+
+    private boolean coalesce(Command command, Object coalescingKey) {
+        command.coalescingKey = coalescingKey;
+        for (; ; ) {
+            Command target = coalescingCommands.putIfAbsent(coalescingKey, command);
+            if (target == null) return false;
+            boolean upgraded;
+            DataPacket superseded = null;
+            List<PeripheralCommandFuture> supersededFutures = null;
+            synchronized (target) {
+                if (target.state != STATE_QUEUED) {
+                    coalescingCommands.remove(coalescingKey, target);
+                    continue;
+                }
+                upgraded = command.priority.ordinal() < target.priority.ordinal();
+                if (!upgraded) {
+                    superseded = target.packet;
+                    supersededFutures = target.futures;
+                    target.packet = command.packet;
+                    target.key = command.key;
+                    target.futures = command.futures;
+                    target.plainSent = command.plainSent;
+                    commandIndex.put(command.packet, target);
+                }
+            }
+            if (upgraded) {
+                // 优先级升级：新指令优先级更高，丢弃旧指令，新指令按自身优先级排队
+                if (!coalescingCommands.replace(coalescingKey, target, command)) continue;
+                if (finish(target)) cancelFutures(target.futures, 0);
+                return false;
+            }
+            commandIndex.remove(superseded, target);
+            cancelFutures(supersededFutures, 0);
+            return true;
+        }
+    }
+
+    private boolean finish(Command command) {
+        synchronized (command) {
+            if (command.state == STATE_DONE) return false;
+            if (command.state == STATE_QUEUED) release(command);
+            command.state = STATE_DONE;
+        }
+        commandIndex.remove(command.packet, command);
+        if (command.coalescingKey != null) coalescingCommands.remove(command.coalescingKey, command);
+        return true;
+    }
+
+    private static void cancelFutures(List<PeripheralCommandFuture> futures, int attempts) {
+        if (futures == null) return;
+        for (PeripheralCommandFuture future : futures) {
+            future.cancelled(attempts);
+        }
+    }
+
+    private void scheduleSend() {
+        if (sendScheduled.compareAndSet(false, true)) scheduler.execute(sendTask);
+    }
+
+    private void drainInbox() {
+        Command command;
+        while ((command = inbox.poll()) != null) {
+            if (command.state == STATE_QUEUED) lanes[command.priority.ordinal()].add(command);
+        }
+    }
+
+    private synchronized void sendNext() {
+        sendScheduled.set(false);
+        drainInbox();
+        while (inFlights.size() < windowSize) {
+            Command command = pollCommand();
+            if (command == null) return;
+            inFlights.put(command.key, command);
+            attempt(command);
+        }
+    }
+
+    private Command pollCommand() {
+        for (int round = 0; round < 2; round++) {
+            for (Priority priority : PRIORITIES) {
+                if (credits[priority.ordinal()] <= 0) continue;
+                Command command = pollSendable(lanes[priority.ordinal()]);
+                if (command == null) continue;
+                credits[priority.ordinal()]--;
+                return command;
+            }
+            for (Priority priority : PRIORITIES) {
+                credits[priority.ordinal()] = priority.weight;
+            }
+        }
+        return null;
+    }
+
+    private Command pollSendable(ArrayDeque<Command> lane) {
+        Iterator<Command> iterator = lane.iterator();
+        while (iterator.hasNext()) {
+            Command command = iterator.next();
+            synchronized (command) {
+                if (command.state != STATE_QUEUED) {
+                    iterator.remove();
+                    continue;
                 }
+                if (inFlights.containsKey(command.key)) continue;
+                command.state = STATE_SENDING;
+                release(command);
+            }
+            iterator.remove();
+            if (command.coalescingKey != null) coalescingCommands.remove(command.coalescingKey, command);
+            return command;
+        }
+        return null;
+    }
+
+    private void attempt(Command command) {
+        final int attempt = ++command.attempts;
+        long timeoutMillis = retryPolicy.getTimeoutMillis(command.packet, attempt);
+        command.attemptTime = System.nanoTime();
+        if (attempt == 1) statistics[command.priority.ordinal()].onSent(command);
+        peripheral.set(command.packet);
+        command.timeout = scheduler.schedule(() -> onAttemptTimeout(command, attempt), timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void onAttemptTimeout(Command command, int attempt) {
+        synchronized (this) {
+            if (inFlights.get(command.key) != command || command.attempts != attempt) return;
+            if (attempt < retryPolicy.getMaxAttempts(command.packet)) {
+                attempt(command);
+                return;
             }
-        };
+            inFlights.remove(command.key);
+            statistics[command.priority.ordinal()].timeouts++;
+        }
+        scheduleSend();
+        if (!finish(command)) return;
+        TimeoutCallback timeoutCallback = this.timeoutCallback;
+        if (timeoutCallback != null) timeoutCallback.onTimeout(command.packet, attempt);
+        if (command.futures == null) return;
+        for (PeripheralCommandFuture future : command.futures) {
+            future.timeout(attempt);
+        }
+    }
+
+    /**
+     * 指令优先级。各优先级按权重轮流发送，低优先级指令不会被饿死
+     */
+    public enum Priority {
+        /**
+         * 紧急，如用户触发的控制指令
+         */
+        URGENT(8),
+        /**
+         * 普通
+         */
+        NORMAL(4),
+        /**
+         * 批量，如历史数据同步
+         */
+        BULK(1);
+
+        private final int weight;
+
+        Priority(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * 排队指令数达到上限时的处理策略
+     *
+     * @see #setCapacity(int, OverflowPolicy)
+     */
+    public enum OverflowPolicy {
+        /**
+         * 阻塞设置指令的线程，直到有空位。在调度线程中设置指令时按{@link #REJECT}处理
+         */
+        BLOCK,
+        /**
+         * 拒绝新指令
+         */
+        REJECT,
+        /**
+         * 丢弃最早排队的指令
+         */
+        DROP_OLDEST,
+        /**
+         * 丢弃优先级最低（不高于新指令）且最早排队的指令，没有可丢弃的指令时拒绝新指令
+         */
+        DROP_LOWEST_PRIORITY
+    }
+
+    /**
+     * 溢出回调
+     */
+    public interface OverflowCallback {
+        /**
+         * 指令因队列已满被拒绝或丢弃
+         *
+         * @param command 指令
+         */
+        void onOverflow(DataPacket command);
+    }
+
+    /**
+     * 某优先级指令的延时统计。排队耗时为设置指令到首次发送，应答耗时为设置指令到收到应答
+     */
+    public static final class LaneStatistics {
+        private final Priority priority;
+        private long sent;
+        private long replied;
+        private long timeouts;
+        private long totalQueueNanos;
+        private long maxQueueNanos;
+        private long totalReplyNanos;
+        private long maxReplyNanos;
+
+        private LaneStatistics(Priority priority) {
+            this.priority = priority;
+        }
+
+        private void onSent(Command command) {
+            long queueNanos = command.attemptTime - command.enqueueTime;
+            sent++;
+            totalQueueNanos += queueNanos;
+            maxQueueNanos = Math.max(maxQueueNanos, queueNanos);
+        }
+
+        private void onReplied(Command command, long now) {
+            long replyNanos = now - command.enqueueTime;
+            replied++;
+            totalReplyNanos += replyNanos;
+            maxReplyNanos = Math.max(maxReplyNanos, replyNanos);
+        }
+
+        private LaneStatistics copy() {
+            LaneStatistics copy = new LaneStatistics(priority);
+            copy.sent = sent;
+            copy.replied = replied;
+            copy.timeouts = timeouts;
+            copy.totalQueueNanos = totalQueueNanos;
+            copy.maxQueueNanos = maxQueueNanos;
+            copy.totalReplyNanos = totalReplyNanos;
+            copy.maxReplyNanos = maxReplyNanos;
+            return copy;
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        public long getSentCount() {
+            return sent;
+        }
+
+        public long getRepliedCount() {
+            return replied;
+        }
+
+        public long getTimeoutCount() {
+            return timeouts;
+        }
+
+        public double getAverageQueueMillis() {
+            return sent == 0 ? 0 : totalQueueNanos / 1e6 / sent;
+        }
+
+        public double getMaxQueueMillis() {
+            return maxQueueNanos / 1e6;
+        }
+
+        public double getAverageReplyMillis() {
+            return replied == 0 ? 0 : totalReplyNanos / 1e6 / replied;
+        }
+
+        public double getMaxReplyMillis() {
+            return maxReplyNanos / 1e6;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "LaneStatistics{" +
+                    "priority=" + priority +
+                    ", sent=" + sent +
+                    ", replied=" + replied +
+                    ", timeouts=" + timeouts +
+                    ", averageQueueMillis=" + getAverageQueueMillis() +
+                    ", maxQueueMillis=" + getMaxQueueMillis() +
+                    ", averageReplyMillis=" + getAverageReplyMillis() +
+                    ", maxReplyMillis=" + getMaxReplyMillis() +
+                    '}';
+        }
     }
 
-    private synchronized boolean isRunning() {
-        return task != null;
+    private static final class Command {
+        private final Priority priority;
+        private final long enqueueTime = System.nanoTime();
+        private volatile int state = STATE_QUEUED;
+        private boolean reserved;
+        private DataPacket packet;
+        private Object key;
+        private Object coalescingKey;
+        private List<PeripheralCommandFuture> futures;
+        /**
+         * 是否有不关心结果的{@link #set(DataPacket)}调用
+         */
+        private boolean plainSent;
+        private int attempts;
+        private long attemptTime;
+        private PeripheralScheduler.Timeout timeout;
+
+        private Command(DataPacket packet, Priority priority, Object key) {
+            this.packet = packet;
+            this.priority = priority;
+            this.key = key;
+        }
+
+        private synchronized boolean addFuture(PeripheralCommandFuture future) {
+            if (state == STATE_DONE) return false;
+            if (future == null) {
+                plainSent = true;
+                return true;
+            }
+            if (futures == null) futures = new ArrayList<>(1);
+            futures.add(future);
+            return true;
+        }
+
+        private void cancel() {
+            if (timeout != null) timeout.cancel();
+        }
     }
 
-    private synchronized void setRunningFalse() {
-        task = null;
+    /**
+     * 指令合并标识
+     */
+    public interface Coalescer {
+        /**
+         * 按指令类型合并
+         */
+        Coalescer BY_TYPE = DataPacket::getType;
+
+        /**
+         * 获取合并标识
+         *
+         * @param command 指令
+         * @return 合并标识。为null时该指令不参与合并
+         */
+        Object getCoalescingKey(DataPacket command);
     }
 
     public interface TimeoutCallback {
         void onTimeout(DataPacket command);
+
+        /**
+         * 指令超时
+         *
+         * @param command  指令
+         * @param attempts 已发送次数
+         */
+        default void onTimeout(DataPacket command, int attempts) {
+            onTimeout(command);
+        }
     }
 }
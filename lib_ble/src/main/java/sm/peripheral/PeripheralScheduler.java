@@ -0,0 +1,255 @@
+package sm.peripheral;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 共享调度器。所有设备的指令发送、重试、超时共用一个哈希时间轮线程，
+ * 线程数与连接的设备数量无关；无任务时线程在保活时间后自动退出，有新任务时再启动
+ *
+ * @see #execute(Runnable)
+ * @see #schedule(Runnable, long, TimeUnit)
+ */
+public final class PeripheralScheduler {
+    private static final PeripheralScheduler instance = new PeripheralScheduler(10, 512, 60 * 1000);
+    private static final int STATE_INIT = 0;
+    private static final int STATE_CANCELLED = 1;
+    private static final int STATE_EXPIRED = 2;
+    private final long tickNanos;
+    private final Timeout[] wheel;
+    private final int mask;
+    private final long keepAliveNanos;
+    private final long startTime = System.nanoTime();
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger timeoutCount = new AtomicInteger();
+    private volatile Thread worker;
+    private long tick;
+
+    /**
+     * @param tickMillis      时间轮刻度
+     * @param ticksPerWheel   时间轮槽数
+     * @param keepAliveMillis 空闲保活时间
+     */
+    public PeripheralScheduler(long tickMillis, int ticksPerWheel, long keepAliveMillis) {
+        if (tickMillis <= 0) throw new IllegalArgumentException("tickMillis must be greater than 0");
+        if (ticksPerWheel <= 0) throw new IllegalArgumentException("ticksPerWheel must be greater than 0");
+        int size = 1;
+        while (size < ticksPerWheel) size <<= 1;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.wheel = new Timeout[size];
+        this.mask = size - 1;
+        this.keepAliveNanos = TimeUnit.MILLISECONDS.toNanos(keepAliveMillis);
+    }
+
+    public static PeripheralScheduler getInstance() {
+        return instance;
+    }
+
+    /**
+     * 立即在调度线程执行任务
+     *
+     * @param task 任务
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        startWorker();
+    }
+
+    /**
+     * 延时在调度线程执行任务
+     *
+     * @param task  任务
+     * @param delay 延时
+     * @param unit  延时单位
+     * @return 可取消的超时句柄
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(task, elapsed() + Math.max(unit.toNanos(delay), 0));
+        timeoutCount.incrementAndGet();
+        pendingTimeouts.add(timeout);
+        startWorker();
+        return timeout;
+    }
+
+    /**
+     * 当前线程是否为调度线程
+     *
+     * @return 是否为调度线程
+     */
+    public boolean isSchedulerThread() {
+        return Thread.currentThread() == worker;
+    }
+
+    private long elapsed() {
+        return System.nanoTime() - startTime;
+    }
+
+    private void startWorker() {
+        Thread worker = this.worker;
+        if (worker != null) {
+            LockSupport.unpark(worker);
+            return;
+        }
+        synchronized (this) {
+            if (this.worker == null) {
+                this.worker = new Thread(this::run, "PeripheralScheduler");
+                this.worker.setDaemon(true);
+                this.worker.start();
+            } else {
+                LockSupport.unpark(this.worker);
+            }
+        }
+    }
+
+    private synchronized boolean tryTerminate() {
+        if (hasWork()) return false;
+        worker = null;
+        if (!hasWork()) return true;
+        worker = Thread.currentThread();
+        return false;
+    }
+
+    private boolean hasWork() {
+        return timeoutCount.get() != 0 || !tasks.isEmpty();
+    }
+
+    private void run() {
+        tick = elapsed() / tickNanos;
+        for (; ; ) {
+            runTasks();
+            transferCancelledTimeouts();
+            if (timeoutCount.get() == 0) {
+                long idleStart = elapsed();
+                while (!hasWork()) {
+                    long idleNanos = keepAliveNanos - (elapsed() - idleStart);
+                    if (idleNanos <= 0) {
+                        if (tryTerminate()) return;
+                        break;
+                    }
+                    LockSupport.parkNanos(this, idleNanos);
+                }
+                tick = elapsed() / tickNanos;
+                continue;
+            }
+            long sleepNanos = (tick + 1) * tickNanos - elapsed();
+            if (sleepNanos > 0) {
+                LockSupport.parkNanos(this, sleepNanos);
+                continue;
+            }
+            transferPendingTimeouts();
+            expireTimeouts((int) (tick & mask));
+            tick++;
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            runSafely(task);
+        }
+    }
+
+    private void transferPendingTimeouts() {
+        Timeout timeout;
+        while ((timeout = pendingTimeouts.poll()) != null) {
+            if (timeout.state.get() != STATE_INIT) continue;
+            long calculated = timeout.deadline / tickNanos;
+            timeout.remainingRounds = (calculated - tick) / wheel.length;
+            int index = (int) (Math.max(calculated, tick) & mask);
+            timeout.bucket = index;
+            timeout.next = wheel[index];
+            if (wheel[index] != null) wheel[index].prev = timeout;
+            wheel[index] = timeout;
+        }
+    }
+
+    private void transferCancelledTimeouts() {
+        Timeout timeout;
+        while ((timeout = cancelledTimeouts.poll()) != null) {
+            unlink(timeout);
+        }
+    }
+
+    private void expireTimeouts(int index) {
+        Timeout timeout = wheel[index];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.state.get() != STATE_INIT) {
+                unlink(timeout);
+            } else if (timeout.remainingRounds <= 0) {
+                unlink(timeout);
+                timeout.expire();
+            } else {
+                timeout.remainingRounds--;
+            }
+            timeout = next;
+        }
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.bucket < 0) return;
+        if (timeout.prev != null) timeout.prev.next = timeout.next;
+        else wheel[timeout.bucket] = timeout.next;
+        if (timeout.next != null) timeout.next.prev = timeout.prev;
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.bucket = -1;
+    }
+
+    private static void runSafely(Runnable task) {
+        try {
+            task.run();
+        } catch (Throwable t) {
+            Logger.w("PeripheralScheduler: task " + task + " threw " + t);
+        }
+    }
+
+    /**
+     * 超时句柄
+     */
+    public final class Timeout {
+        private final AtomicInteger state = new AtomicInteger(STATE_INIT);
+        private final Runnable task;
+        private final long deadline;
+        private long remainingRounds;
+        private int bucket = -1;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * 取消
+         *
+         * @return 是否取消成功。已执行或已取消时返回false
+         */
+        public boolean cancel() {
+            if (!state.compareAndSet(STATE_INIT, STATE_CANCELLED)) return false;
+            timeoutCount.decrementAndGet();
+            cancelledTimeouts.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state.get() == STATE_CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state.get() == STATE_EXPIRED;
+        }
+
+        private void expire() {
+            if (!state.compareAndSet(STATE_INIT, STATE_EXPIRED)) return;
+            timeoutCount.decrementAndGet();
+            runSafely(task);
+        }
+    }
+}
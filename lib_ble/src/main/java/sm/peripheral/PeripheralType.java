@@ -2,14 +2,21 @@ package sm.peripheral;
 
 import android.annotation.SuppressLint;
 import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.os.ParcelUuid;
 
 import androidx.annotation.NonNull;
 
+import java.util.List;
 import java.util.Objects;
+import java.util.UUID;
 
 public class PeripheralType {
     private final String name;
     private String address;
+    private UUID serviceUuid;
+    private int manufacturerId = -1;
 
     public PeripheralType(String name) {
         this.name = name;
@@ -28,6 +35,40 @@ public class PeripheralType {
         return address;
     }
 
+    /**
+     * 限定广播中包含的服务UUID，可交由蓝牙控制器过滤
+     *
+     * @param serviceUuid 服务UUID
+     * @return PeripheralType
+     */
+    public PeripheralType withServiceUuid(UUID serviceUuid) {
+        this.serviceUuid = serviceUuid;
+        return this;
+    }
+
+    public UUID getServiceUuid() {
+        return serviceUuid;
+    }
+
+    /**
+     * 限定广播中包含的厂商ID，可交由蓝牙控制器过滤
+     *
+     * @param manufacturerId 厂商ID(蓝牙SIG分配的公司标识)
+     * @return PeripheralType
+     */
+    public PeripheralType withManufacturerId(int manufacturerId) {
+        if (manufacturerId < 0 || manufacturerId > 0xFFFF) throw new IllegalArgumentException("manufacturerId must be 0~0xFFFF");
+        this.manufacturerId = manufacturerId;
+        return this;
+    }
+
+    /**
+     * @return 厂商ID，未限定时为-1
+     */
+    public int getManufacturerId() {
+        return manufacturerId;
+    }
+
     public boolean include(String name, String address) {
         return (this.name == null || this.name.equals(name)) && (this.address == null || this.address.equals(address));
     }
@@ -41,17 +82,43 @@ public class PeripheralType {
         return include(peripheral.getName(), peripheral.getAddress());
     }
 
+    /**
+     * 是否匹配扫描结果，包括名称、地址、服务UUID和厂商ID
+     *
+     * @param result 扫描结果
+     * @return 是否匹配
+     */
+    @SuppressLint("MissingPermission")
+    public boolean include(ScanResult result) {
+        BluetoothDevice bluetoothDevice = result.getDevice();
+        if (!include(bluetoothDevice.getName(), bluetoothDevice.getAddress())) return false;
+        if (serviceUuid == null && manufacturerId < 0) return true;
+        ScanRecord scanRecord = result.getScanRecord();
+        if (scanRecord == null) return false;
+        if (manufacturerId >= 0 && scanRecord.getManufacturerSpecificData(manufacturerId) == null) return false;
+        if (serviceUuid == null) return true;
+        List<ParcelUuid> serviceUuids = scanRecord.getServiceUuids();
+        if (serviceUuids == null) return false;
+        for (ParcelUuid parcelUuid : serviceUuids) {
+            if (serviceUuid.equals(parcelUuid.getUuid())) return true;
+        }
+        return false;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         PeripheralType that = (PeripheralType) o;
-        return Objects.equals(name, that.name) && Objects.equals(address, that.address);
+        return manufacturerId == that.manufacturerId
+                && Objects.equals(name, that.name)
+                && Objects.equals(address, that.address)
+                && Objects.equals(serviceUuid, that.serviceUuid);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(name, address);
+        return Objects.hash(name, address, serviceUuid, manufacturerId);
     }
 
     @NonNull
@@ -60,6 +127,8 @@ public class PeripheralType {
         return "PeripheralType{" +
                 "name='" + name + '\'' +
                 ", address='" + address + '\'' +
+                ", serviceUuid=" + serviceUuid +
+                ", manufacturerId=" + manufacturerId +
                 '}';
     }
 }
@@ -0,0 +1,134 @@
+package sm.peripheral;
+
+import android.os.Handler;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 池化的应答数据，引用计数。包装协议栈交出的数组，不复制数据，池化的只是包装对象本身。
+ * 创建时计数为1，使用者用完后须调用{@link #release()}归还，跨线程传递或延后使用时先{@link #retain()}
+ *
+ * @see BufferPool
+ * @see Peripheral.PooledMessenger
+ */
+public final class PooledBuffer {
+    private final BufferPool pool;
+    private byte[] data;
+    private final AtomicInteger refCount = new AtomicInteger();
+    private final Runnable delivery = this::deliver;
+    private int length;
+    private Peripheral.PooledMessenger target;
+    PooledBuffer next;
+
+    PooledBuffer(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * 包装数组，不池化
+     *
+     * @param data 数据
+     * @return PooledBuffer
+     */
+    public static PooledBuffer wrap(byte[] data) {
+        PooledBuffer buffer = new PooledBuffer(null);
+        buffer.init(data, data.length);
+        return buffer;
+    }
+
+    void init(byte[] data, int length) {
+        this.data = data;
+        this.length = length;
+        refCount.set(1);
+    }
+
+    /**
+     * 获取底层数组，有效数据为[0, {@link #getLength()})。归还后不可再访问
+     *
+     * @return 数组
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public byte get(int index) {
+        if (index < 0 || index >= length) throw new IndexOutOfBoundsException("index=" + index + ", length=" + length);
+        return data[index];
+    }
+
+    /**
+     * 获取只读视图，不复制
+     *
+     * @return 只读缓冲区
+     */
+    public ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(data, 0, length).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * 复制有效数据
+     *
+     * @return 数据副本
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(data, length);
+    }
+
+    public int refCount() {
+        return refCount.get();
+    }
+
+    /**
+     * 增加引用计数
+     *
+     * @return PooledBuffer
+     */
+    public PooledBuffer retain() {
+        for (; ; ) {
+            int count = refCount.get();
+            if (count <= 0) throw new IllegalStateException("buffer already released");
+            if (refCount.compareAndSet(count, count + 1)) return this;
+        }
+    }
+
+    /**
+     * 减少引用计数，为0时归还
+     *
+     * @return 是否已归还
+     */
+    public boolean release() {
+        for (; ; ) {
+            int count = refCount.get();
+            if (count <= 0) throw new IllegalStateException("buffer already released");
+            if (refCount.compareAndSet(count, count - 1)) {
+                if (count != 1) return false;
+                data = null;
+                if (pool != null) pool.recycle(this);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 投递给信使，复用自身的Runnable，不产生额外分配。投递失败时归还
+     *
+     * @param handler   执行线程
+     * @param messenger 信使
+     */
+    public void post(Handler handler, Peripheral.PooledMessenger messenger) {
+        target = messenger;
+        if (!handler.post(delivery)) release();
+    }
+
+    private void deliver() {
+        Peripheral.PooledMessenger target = this.target;
+        this.target = null;
+        target.reply(this);
+    }
+}
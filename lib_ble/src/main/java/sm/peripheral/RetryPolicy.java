@@ -0,0 +1,38 @@
+package sm.peripheral;
+
+/**
+ * 指令重试策略
+ *
+ * @see FixedRetryPolicy
+ * @see ExponentialRetryPolicy
+ * @see AdaptiveRetryPolicy
+ * @see TypedRetryPolicy
+ */
+public interface RetryPolicy {
+
+    /**
+     * 获取最大发送次数
+     *
+     * @param command 指令
+     * @return 最大发送次数，包含首次发送
+     */
+    int getMaxAttempts(DataPacket command);
+
+    /**
+     * 获取单次发送的应答超时
+     *
+     * @param command 指令
+     * @param attempt 第几次发送，从1开始
+     * @return 超时毫秒数
+     */
+    long getTimeoutMillis(DataPacket command, int attempt);
+
+    /**
+     * 指令已应答
+     *
+     * @param command   指令
+     * @param attempt   应答时为第几次发送
+     * @param rttMillis 最后一次发送到应答的耗时
+     */
+    void onReplied(DataPacket command, int attempt, long rttMillis);
+}
@@ -0,0 +1,136 @@
+package sm.peripheral;
+
+/**
+ * 字节环形缓冲区。容量按2的幂扩展至上限，非线程安全
+ */
+public final class RingBuffer {
+    private final int maxCapacity;
+    private byte[] buffer;
+    private int mask;
+    private int head;
+    private int size;
+
+    /**
+     * @param initialCapacity 初始容量
+     * @param maxCapacity     最大容量
+     */
+    public RingBuffer(int initialCapacity, int maxCapacity) {
+        if (initialCapacity <= 0) throw new IllegalArgumentException("initialCapacity must be greater than 0");
+        if (maxCapacity < initialCapacity) throw new IllegalArgumentException("maxCapacity must not be less than initialCapacity");
+        this.maxCapacity = maxCapacity;
+        this.buffer = new byte[roundUp(initialCapacity)];
+        this.mask = buffer.length - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getMaxCapacity() {
+        return maxCapacity;
+    }
+
+    /**
+     * 写入数据
+     *
+     * @return 是否写入成功。超出最大容量时不写入并返回false
+     */
+    public boolean write(byte[] data, int offset, int length) {
+        if (size + length > maxCapacity) return false;
+        if (size + length > buffer.length) grow(size + length);
+        int tail = (head + size) & mask;
+        int first = Math.min(length, buffer.length - tail);
+        System.arraycopy(data, offset, buffer, tail, first);
+        System.arraycopy(data, offset + first, buffer, 0, length - first);
+        size += length;
+        return true;
+    }
+
+    /**
+     * 读取指定位置的字节，不移除
+     *
+     * @param index 相对可读起始的位置
+     * @return 字节
+     */
+    public byte get(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("index=" + index + ", size=" + size);
+        return buffer[(head + index) & mask];
+    }
+
+    /**
+     * 查找字节序列
+     *
+     * @param pattern 字节序列
+     * @param from    起始位置
+     * @return 位置，未找到时返回-1
+     */
+    public int indexOf(byte[] pattern, int from) {
+        int last = size - pattern.length;
+        for (int i = Math.max(from, 0); i <= last; i++) {
+            int j = 0;
+            while (j < pattern.length && buffer[(head + i + j) & mask] == pattern[j]) j++;
+            if (j == pattern.length) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * 读取并移除数据
+     *
+     * @param dst    目标
+     * @param offset 目标起始位置
+     * @param length 长度
+     */
+    public void read(byte[] dst, int offset, int length) {
+        if (length > size) throw new IndexOutOfBoundsException("length=" + length + ", size=" + size);
+        int first = Math.min(length, buffer.length - head);
+        System.arraycopy(buffer, head, dst, offset, first);
+        System.arraycopy(buffer, 0, dst, offset + first, length - first);
+        skip(length);
+    }
+
+    /**
+     * 读取并移除数据
+     *
+     * @param length 长度
+     * @return 数据
+     */
+    public byte[] read(int length) {
+        byte[] data = new byte[length];
+        read(data, 0, length);
+        return data;
+    }
+
+    /**
+     * 移除数据
+     *
+     * @param length 长度
+     */
+    public void skip(int length) {
+        if (length > size) throw new IndexOutOfBoundsException("length=" + length + ", size=" + size);
+        head = (head + length) & mask;
+        size -= length;
+        if (size == 0) head = 0;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    private void grow(int minCapacity) {
+        byte[] newBuffer = new byte[roundUp(minCapacity)];
+        int first = Math.min(size, buffer.length - head);
+        System.arraycopy(buffer, head, newBuffer, 0, first);
+        System.arraycopy(buffer, 0, newBuffer, first, size - first);
+        buffer = newBuffer;
+        mask = newBuffer.length - 1;
+        head = 0;
+    }
+
+    private static int roundUp(int capacity) {
+        int size = 1;
+        while (size < capacity) size <<= 1;
+        return size;
+    }
+}
@@ -0,0 +1,55 @@
+package sm.peripheral;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按间隔组装帧。超过指定时间未收到新分片时，已收到的数据作为一帧
+ */
+public class TimeoutFrameAssembler extends FrameAssembler {
+    private final PeripheralScheduler scheduler;
+    private final long idleMillis;
+    private final int maxFrameLength;
+    private PeripheralScheduler.Timeout timeout;
+    private long generation;
+
+    /**
+     * @param idleMillis     分片间隔
+     * @param maxFrameLength 最大帧长度，达到时立即成帧
+     */
+    public TimeoutFrameAssembler(long idleMillis, int maxFrameLength) {
+        this(idleMillis, maxFrameLength, PeripheralScheduler.getInstance());
+    }
+
+    public TimeoutFrameAssembler(long idleMillis, int maxFrameLength, PeripheralScheduler scheduler) {
+        super(maxFrameLength);
+        this.scheduler = scheduler;
+        this.idleMillis = idleMillis;
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    @Override
+    protected void decode() {
+        if (timeout != null) timeout.cancel();
+        timeout = null;
+        generation++;
+        while (buffer.size() >= maxFrameLength) {
+            emit(maxFrameLength);
+        }
+        if (buffer.size() == 0) return;
+        long generation = this.generation;
+        timeout = scheduler.schedule(() -> onIdle(generation), idleMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void onIdle(long generation) {
+        if (generation != this.generation || timeout == null) return;
+        timeout = null;
+        if (buffer.size() > 0) emit(buffer.size());
+    }
+
+    @Override
+    public synchronized void reset() {
+        super.reset();
+        if (timeout != null) timeout.cancel();
+        timeout = null;
+    }
+}
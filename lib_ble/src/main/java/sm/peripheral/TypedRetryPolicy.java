@@ -0,0 +1,48 @@
+package sm.peripheral;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 按指令类型{@link DataPacket#getType()}区分的重试策略，未指定的类型使用默认策略。
+ * 可在使用中随时指定，调度线程重试时读取最新的策略
+ */
+public class TypedRetryPolicy implements RetryPolicy {
+    private final RetryPolicy defaultPolicy;
+    private final AtomicReferenceArray<RetryPolicy> policies = new AtomicReferenceArray<>(256);
+
+    public TypedRetryPolicy(RetryPolicy defaultPolicy) {
+        this.defaultPolicy = defaultPolicy;
+    }
+
+    /**
+     * 指定某类指令的重试策略
+     *
+     * @param type   指令类型
+     * @param policy 重试策略
+     * @return TypedRetryPolicy
+     */
+    public TypedRetryPolicy put(byte type, RetryPolicy policy) {
+        policies.set(DataPacket.byte2int(type), policy);
+        return this;
+    }
+
+    @Override
+    public int getMaxAttempts(DataPacket command) {
+        return policyOf(command).getMaxAttempts(command);
+    }
+
+    @Override
+    public long getTimeoutMillis(DataPacket command, int attempt) {
+        return policyOf(command).getTimeoutMillis(command, attempt);
+    }
+
+    @Override
+    public void onReplied(DataPacket command, int attempt, long rttMillis) {
+        policyOf(command).onReplied(command, attempt, rttMillis);
+    }
+
+    private RetryPolicy policyOf(DataPacket command) {
+        RetryPolicy policy = policies.get(DataPacket.byte2int(command.getType()));
+        return policy == null ? defaultPolicy : policy;
+    }
+}
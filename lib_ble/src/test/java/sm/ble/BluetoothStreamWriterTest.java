@@ -0,0 +1,192 @@
+package sm.ble;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用内存中的写入通道代替GATT，校验数据完整及读取不阻塞回调线程
+ */
+public class BluetoothStreamWriterTest {
+    private static final int PAYLOAD_SIZE = 244;
+
+    @Test
+    public void streamsByteBufferThroughMemoryTransport() throws Exception {
+        byte[] data = randomBytes(10 * 1024 * 1024);
+        MemoryTransport transport = new MemoryTransport(PAYLOAD_SIZE, 0, 0);
+        Result result = new Result();
+        run(new BluetoothStreamWriter(transport, ByteBuffer.wrap(data), 4, result), result);
+        try {
+            assertNull(result.error.get());
+            assertEquals(data.length, result.bytesWritten.get());
+            assertArrayEquals(data, transport.received());
+        } finally {
+            transport.shutdown();
+        }
+    }
+
+    @Test
+    public void streamsInputStreamThroughMemoryTransport() throws Exception {
+        byte[] data = randomBytes(1024 * 1024 + 17);
+        MemoryTransport transport = new MemoryTransport(PAYLOAD_SIZE, 0, 0);
+        Result result = new Result();
+        run(new BluetoothStreamWriter(transport, new ByteArrayInputStream(data), data.length, 4, result), result);
+        try {
+            assertNull(result.error.get());
+            assertArrayEquals(data, transport.received());
+        } finally {
+            transport.shutdown();
+        }
+    }
+
+    @Test
+    public void blockedInputStreamDoesNotBlockCallbackThread() throws Exception {
+        final int window = 4;
+        byte[] data = randomBytes(PAYLOAD_SIZE * window * 2);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<Thread> readThread = new AtomicReference<>();
+        InputStream in = new ByteArrayInputStream(data) {
+            @Override
+            public int read(byte[] b, int off, int len) {
+                readThread.set(Thread.currentThread());
+                if (pos >= PAYLOAD_SIZE * window) {
+                    blocked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.read(b, off, len);
+            }
+        };
+        MemoryTransport transport = new MemoryTransport(PAYLOAD_SIZE, 0, window);
+        Result result = new Result();
+        BluetoothStreamWriter writer = new BluetoothStreamWriter(transport, in, data.length, window, result);
+        try {
+            writer.start();
+            assertTrue("reader not blocked", blocked.await(10, TimeUnit.SECONDS));
+            assertTrue("completion blocked by reader", transport.completed.await(10, TimeUnit.SECONDS));
+            assertEquals(1, release.getCount());
+            assertNotNull(transport.completionThread.get());
+            assertNotSame(transport.completionThread.get(), readThread.get());
+            assertNotSame(Thread.currentThread(), readThread.get());
+            release.countDown();
+            assertTrue("stream timeout", result.done.await(60, TimeUnit.SECONDS));
+            assertNull(result.error.get());
+            assertArrayEquals(data, transport.received());
+        } finally {
+            release.countDown();
+            transport.shutdown();
+        }
+    }
+
+    private static void run(BluetoothStreamWriter writer, Result result) throws InterruptedException {
+        writer.start();
+        assertTrue("stream timeout", result.done.await(60, TimeUnit.SECONDS));
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * 内存写入通道，在单独的线程中依次完成写入，模拟GATT回调线程
+     */
+    private static final class MemoryTransport implements BluetoothStreamWriter.Transport {
+        private final int payloadSize;
+        private final long latencyMillis;
+        private final ExecutorService gattThread = Executors.newSingleThreadExecutor();
+        private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        private final AtomicReference<Thread> completionThread = new AtomicReference<>();
+        private final CountDownLatch completed;
+
+        /**
+         * @param completions 等待返回的完成回调数
+         */
+        MemoryTransport(int payloadSize, long latencyMillis, int completions) {
+            this.payloadSize = payloadSize;
+            this.latencyMillis = latencyMillis;
+            this.completed = new CountDownLatch(completions);
+        }
+
+        @Override
+        public int getMaxPayloadSize() {
+            return payloadSize;
+        }
+
+        @Override
+        public void write(byte[] chunk, BluetoothStreamWriter.Completion completion) {
+            byte[] copy = Arrays.copyOf(chunk, chunk.length);
+            gattThread.execute(() -> {
+                if (latencyMillis > 0) {
+                    try {
+                        Thread.sleep(latencyMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                synchronized (received) {
+                    received.write(copy, 0, copy.length);
+                }
+                completionThread.set(Thread.currentThread());
+                completion.onComplete(true);
+                completed.countDown();
+            });
+        }
+
+        byte[] received() {
+            synchronized (received) {
+                return received.toByteArray();
+            }
+        }
+
+        void shutdown() {
+            gattThread.shutdownNow();
+        }
+    }
+
+    private static final class Result implements BluetoothStreamWriter.Callback {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final AtomicLong bytesWritten = new AtomicLong();
+        private final AtomicReference<IOException> error = new AtomicReference<>();
+
+        @Override
+        public void onProgress(BluetoothStreamWriter writer, long bytesWritten, long total, double bytesPerSecond) {
+        }
+
+        @Override
+        public void onComplete(BluetoothStreamWriter writer, long bytesWritten, double bytesPerSecond) {
+            this.bytesWritten.set(bytesWritten);
+            done.countDown();
+        }
+
+        @Override
+        public void onError(BluetoothStreamWriter writer, IOException error) {
+            this.error.set(error);
+            done.countDown();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package sm.ble;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ScanGovernorTest {
+    private long now;
+    private final ScanGovernor governor = new ScanGovernor(
+            ScanGovernor.DEFAULT_MAX_STARTS, ScanGovernor.DEFAULT_WINDOW_MILLIS, () -> now);
+
+    @Test
+    public void sixthStartInsideWindowIsDeferred() {
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, governor.getStartDelay());
+            governor.onStarted();
+            now += 1000;
+        }
+        assertEquals(5, governor.getStartCount());
+        assertEquals(ScanGovernor.DEFAULT_WINDOW_MILLIS - 5000, governor.getStartDelay());
+    }
+
+    @Test
+    public void sixthStartRunsOnceWindowPasses() {
+        for (int i = 0; i < 5; i++) {
+            governor.onStarted();
+            now += 1000;
+        }
+        now = ScanGovernor.DEFAULT_WINDOW_MILLIS - 1;
+        assertEquals(1, governor.getStartDelay());
+        now = ScanGovernor.DEFAULT_WINDOW_MILLIS;
+        assertEquals(0, governor.getStartDelay());
+        governor.onStarted();
+        assertEquals(1000, governor.getStartDelay());
+        assertEquals(5, governor.getStartCount());
+    }
+
+    @Test
+    public void startsOutsideWindowAreForgotten() {
+        for (int i = 0; i < 5; i++) {
+            governor.onStarted();
+        }
+        now += ScanGovernor.DEFAULT_WINDOW_MILLIS;
+        assertEquals(0, governor.getStartCount());
+        assertEquals(0, governor.getStartDelay());
+    }
+}
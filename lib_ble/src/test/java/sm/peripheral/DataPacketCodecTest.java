@@ -0,0 +1,161 @@
+package sm.peripheral;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class DataPacketCodecTest {
+    private static final byte[] CHECK_INPUT = "123456789".getBytes(Charset.forName("US-ASCII"));
+
+    @Test
+    public void checksMatchKnownAnswers() {
+        assertEquals(0xF4, DataPacketCodec.Check.CRC8.compute(CHECK_INPUT, 0, CHECK_INPUT.length));
+        assertEquals(0x29B1, DataPacketCodec.Check.CRC16_CCITT.compute(CHECK_INPUT, 0, CHECK_INPUT.length));
+        assertEquals(0x4B37, DataPacketCodec.Check.CRC16_MODBUS.compute(CHECK_INPUT, 0, CHECK_INPUT.length));
+        assertEquals(0xDD, DataPacketCodec.Check.SUM8.compute(CHECK_INPUT, 0, CHECK_INPUT.length));
+        assertEquals(0x31, DataPacketCodec.Check.XOR8.compute(CHECK_INPUT, 0, CHECK_INPUT.length));
+    }
+
+    @Test
+    public void checksRespectOffsetAndLength() {
+        byte[] data = new byte[CHECK_INPUT.length + 3];
+        System.arraycopy(CHECK_INPUT, 0, data, 2, CHECK_INPUT.length);
+        data[0] = (byte) 0xFF;
+        data[data.length - 1] = (byte) 0xFF;
+        assertEquals(0x29B1, DataPacketCodec.Check.CRC16_CCITT.compute(data, 2, CHECK_INPUT.length));
+        assertEquals(0x4B37, DataPacketCodec.Check.CRC16_MODBUS.compute(data, 2, CHECK_INPUT.length));
+    }
+
+    @Test
+    public void encodesAndDecodesFrameWithCrc8() {
+        DataPacketCodec codec = new DataPacketCodec.Builder()
+                .header(0xAA, 0x55)
+                .type()
+                .length(1, ByteOrder.BIG_ENDIAN)
+                .uint16(ByteOrder.LITTLE_ENDIAN)
+                .bytes()
+                .crc8()
+                .build();
+        byte[] encoded = toArray(codec.newEncoder()
+                .reset((byte) 0x13)
+                .putInt(0x1234)
+                .putBytes(new byte[]{1, 2, 3})
+                .encode());
+        assertArrayEquals(HexCodec.decode("AA 55 13 05 34 12 01 02 03 E2"), encoded);
+
+        DataPacketCodec.Frame frame = codec.newDecoder().decode(encoded, 0, encoded.length);
+        assertNotNull(frame);
+        assertEquals(0x13, frame.getType());
+        assertEquals(encoded.length, frame.getFrameLength());
+        assertEquals(0x1234, frame.getInt(0));
+        assertArrayEquals(new byte[]{1, 2, 3}, frame.getBytes(1));
+    }
+
+    @Test
+    public void lengthAdjustmentAndLittleEndianCheckRoundTrip() {
+        DataPacketCodec codec = new DataPacketCodec.Builder()
+                .header(0x7E)
+                .type()
+                .length(2, ByteOrder.LITTLE_ENDIAN, 2)
+                .int16(ByteOrder.BIG_ENDIAN)
+                .bytes()
+                .check(DataPacketCodec.Check.CRC16_MODBUS, ByteOrder.LITTLE_ENDIAN, true)
+                .build();
+        byte[] payload = HexCodec.decode("DE AD BE EF");
+        DataPacketCodec.Packet packet = codec.newEncoder()
+                .reset((byte) 0x21)
+                .putInt(-2)
+                .putBytes(payload)
+                .toPacket();
+        byte[] expected = HexCodec.decode("7E 21 08 00 FF FE DE AD BE EF 20 10");
+        assertArrayEquals(expected, toArray(packet));
+        assertEquals(0x21, packet.getType());
+
+        DataPacketCodec.Decoder decoder = codec.newDecoder();
+        assertEquals(expected.length, decoder.frameLength(expected, 0, 4));
+        DataPacketCodec.Frame frame = decoder.decode(packet);
+        assertNotNull(frame);
+        assertEquals(-2, frame.getInt(0));
+        assertArrayEquals(payload, frame.getBytes(1));
+    }
+
+    @Test
+    public void decodesFrameFollowedByOtherData() {
+        DataPacketCodec codec = new DataPacketCodec.Builder()
+                .header(0xAA)
+                .type()
+                .length(1, ByteOrder.BIG_ENDIAN)
+                .bytes()
+                .checksum()
+                .build();
+        byte[] first = toArray(codec.newEncoder().reset((byte) 1).putBytes(new byte[]{9, 8}).encode());
+        byte[] data = new byte[first.length + 2];
+        System.arraycopy(first, 0, data, 1, first.length);
+        DataPacketCodec.Frame frame = codec.newDecoder().decode(data, 1, data.length - 1);
+        assertNotNull(frame);
+        assertEquals(first.length, frame.getFrameLength());
+        assertArrayEquals(new byte[]{9, 8}, frame.getBytes(0));
+    }
+
+    @Test
+    public void rejectsIncompleteCorruptedOrIllegalFrames() {
+        DataPacketCodec codec = new DataPacketCodec.Builder()
+                .header(0xAA, 0x55)
+                .type()
+                .length(1, ByteOrder.BIG_ENDIAN)
+                .uint16(ByteOrder.LITTLE_ENDIAN)
+                .bytes()
+                .crc8()
+                .build();
+        DataPacketCodec.Decoder decoder = codec.newDecoder();
+        byte[] frame = HexCodec.decode("AA 55 13 05 34 12 01 02 03 E2");
+
+        assertEquals(-1, decoder.frameLength(frame, 0, 3));
+        assertNull(decoder.decode(frame, 0, frame.length - 1));
+
+        byte[] corrupted = frame.clone();
+        corrupted[6] ^= 0x01;
+        assertNull(decoder.decode(corrupted, 0, corrupted.length));
+
+        byte[] badHeader = frame.clone();
+        badHeader[1] = 0x56;
+        assertNull(decoder.decode(badHeader, 0, badHeader.length));
+
+        byte[] badLength = frame.clone();
+        badLength[3] = 1;
+        assertEquals(-2, decoder.frameLength(badLength, 0, badLength.length));
+    }
+
+    @Test
+    public void encoderIsReusable() {
+        DataPacketCodec codec = new DataPacketCodec.Builder()
+                .type()
+                .bytes()
+                .check(DataPacketCodec.Check.XOR8, ByteOrder.BIG_ENDIAN, false)
+                .build();
+        DataPacketCodec.Encoder encoder = codec.newEncoder();
+        byte[] large = new byte[100];
+        large[0] = 0x7F;
+        assertEquals(102, encoder.reset((byte) 1).putBytes(large).encode().remaining());
+        assertArrayEquals(HexCodec.decode("02 05 07"), toArray(encoder.reset((byte) 2).putBytes(new byte[]{5}).encode()));
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
+    }
+
+    private static byte[] toArray(DataPacket packet) {
+        byte[] data = new byte[packet.length];
+        System.arraycopy(packet.data, packet.offset, data, 0, packet.length);
+        return data;
+    }
+}
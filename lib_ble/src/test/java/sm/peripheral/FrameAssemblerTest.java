@@ -0,0 +1,192 @@
+package sm.peripheral;
+
+import org.junit.Test;
+
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrameAssemblerTest {
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    @Test
+    public void lengthFieldAssemblesFrameSplitAcrossFragments() {
+        Frames frames = new Frames();
+        FrameAssembler assembler = frames.attach(new LengthFieldFrameAssembler(1, 1, ByteOrder.BIG_ENDIAN, 0, 16));
+        byte[] frame = HexCodec.decode("AA 03 01 02 03");
+        for (byte b : frame) {
+            assembler.append(new byte[]{b});
+        }
+        assertEquals(1, frames.size());
+        assertArrayEquals(frame, frames.get(0));
+    }
+
+    @Test
+    public void lengthFieldAssemblesFramesWrappingTheRingBuffer() {
+        Frames frames = new Frames();
+        FrameAssembler assembler = frames.attach(new LengthFieldFrameAssembler(0, 2, ByteOrder.LITTLE_ENDIAN, 1, 8));
+        byte[] stream = new byte[7 * 100];
+        for (int i = 0; i < 100; i++) {
+            byte[] frame = {4, 0, (byte) i, (byte) (i + 1), (byte) (i + 2), (byte) (i + 3), (byte) 0xCC};
+            System.arraycopy(frame, 0, stream, i * 7, 7);
+        }
+        for (int offset = 0; offset < stream.length; offset += 3) {
+            assembler.append(stream, offset, Math.min(3, stream.length - offset));
+        }
+        assertEquals(100, frames.size());
+        for (int i = 0; i < 100; i++) {
+            assertArrayEquals(new byte[]{4, 0, (byte) i, (byte) (i + 1), (byte) (i + 2), (byte) (i + 3), (byte) 0xCC}, frames.get(i));
+        }
+    }
+
+    @Test
+    public void lengthFieldResynchronizesAfterIllegalLength() {
+        Frames frames = new Frames();
+        FrameAssembler assembler = frames.attach(new LengthFieldFrameAssembler(0, 1, ByteOrder.BIG_ENDIAN, 0, 4));
+        assembler.append(HexCodec.decode("7F 02 0A 0B"));
+        assertEquals(1, frames.size());
+        assertArrayEquals(HexCodec.decode("02 0A 0B"), frames.get(0));
+    }
+
+    @Test
+    public void delimiterSplitAcrossFragments() {
+        Frames frames = new Frames();
+        FrameAssembler assembler = frames.attach(new DelimiterFrameAssembler("\r\n".getBytes(ASCII), true, 16));
+        assembler.append(ascii("AB\r"));
+        assertEquals(0, frames.size());
+        assembler.append(ascii("\nCD\r\nE"));
+        assertEquals(2, frames.size());
+        assertEquals("AB", frames.getString(0));
+        assertEquals("CD", frames.getString(1));
+        assembler.append(ascii("F\r\n"));
+        assertEquals("EF", frames.getString(2));
+    }
+
+    @Test
+    public void delimiterKeptWhenNotStripped() {
+        Frames frames = new Frames();
+        FrameAssembler assembler = frames.attach(new DelimiterFrameAssembler(new byte[]{0}, false, 16));
+        assembler.append(new byte[]{1, 2, 0, 3, 0});
+        assertEquals(2, frames.size());
+        assertArrayEquals(new byte[]{1, 2, 0}, frames.get(0));
+        assertArrayEquals(new byte[]{3, 0}, frames.get(1));
+    }
+
+    @Test
+    public void delimiterDiscardsUndelimitedDataBeyondMaxFrameLength() {
+        Frames frames = new Frames();
+        FrameAssembler assembler = frames.attach(new DelimiterFrameAssembler("\r\n".getBytes(ASCII), true, 4));
+        assembler.append(ascii("ABCDEFGH"));
+        assembler.append(ascii("\r\nOK\r\n"));
+        assertEquals(1, frames.size());
+        assertEquals("OK", frames.getString(0));
+    }
+
+    @Test
+    public void delimiterDiscardsDelimitedFrameTooLong() {
+        Frames frames = new Frames();
+        FrameAssembler assembler = frames.attach(new DelimiterFrameAssembler("\n".getBytes(ASCII), true, 4));
+        assembler.append(ascii("AB\nTOOLONG"));
+        assembler.append(ascii("ER\nCD\n"));
+        assertEquals(2, frames.size());
+        assertEquals("AB", frames.getString(0));
+        assertEquals("CD", frames.getString(1));
+    }
+
+    @Test
+    public void fragmentLargerThanBufferIsAssembledInChunks() {
+        Frames frames = new Frames();
+        FrameAssembler assembler = frames.attach(new LengthFieldFrameAssembler(0, 1, ByteOrder.BIG_ENDIAN, 0, 8));
+        int count = (8 + FrameAssembler.MAX_FRAGMENT_LENGTH) / 3 + 10;
+        byte[] fragment = new byte[count * 3];
+        for (int i = 0; i < count; i++) {
+            fragment[i * 3] = 2;
+            fragment[i * 3 + 1] = (byte) i;
+            fragment[i * 3 + 2] = (byte) ~i;
+        }
+        assembler.append(fragment);
+        assertEquals(count, frames.size());
+        for (int i = 0; i < count; i++) {
+            assertArrayEquals(new byte[]{2, (byte) i, (byte) ~i}, frames.get(i));
+        }
+    }
+
+    @Test
+    public void delimiterSurvivesBufferOverflow() {
+        Frames frames = new Frames();
+        FrameAssembler assembler = frames.attach(new DelimiterFrameAssembler("\n".getBytes(ASCII), true, 4));
+        byte[] noise = new byte[4 + FrameAssembler.MAX_FRAGMENT_LENGTH + 100];
+        Arrays.fill(noise, (byte) 'x');
+        assembler.append(noise);
+        assembler.append(ascii("\nX\n"));
+        assembler.append(ascii("YZ\n"));
+        assertEquals(2, frames.size());
+        assertEquals("X", frames.getString(0));
+        assertEquals("YZ", frames.getString(1));
+    }
+
+    @Test
+    public void timeoutEmitsFullFramesImmediatelyAndRestWhenIdle() throws InterruptedException {
+        Frames frames = new Frames();
+        PeripheralScheduler scheduler = new PeripheralScheduler(1, 64, 1000);
+        FrameAssembler assembler = frames.attach(new TimeoutFrameAssembler(20, 4, scheduler));
+        assembler.append(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10});
+        assertEquals(2, frames.size());
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, frames.get(0));
+        assertArrayEquals(new byte[]{5, 6, 7, 8}, frames.get(1));
+        assertTrue("idle frame not emitted", frames.await(3, 5, TimeUnit.SECONDS));
+        assertArrayEquals(new byte[]{9, 10}, frames.get(2));
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(ASCII);
+    }
+
+    private static final class Frames implements FrameAssembler.Listener {
+        private final List<byte[]> frames = Collections.synchronizedList(new ArrayList<>());
+        private CountDownLatch latch;
+        private int expected;
+
+        FrameAssembler attach(FrameAssembler assembler) {
+            assembler.setListener(this);
+            return assembler;
+        }
+
+        @Override
+        public synchronized void onFrame(byte[] frame) {
+            frames.add(frame);
+            if (latch != null && frames.size() >= expected) latch.countDown();
+        }
+
+        boolean await(int count, long time, TimeUnit unit) throws InterruptedException {
+            CountDownLatch latch;
+            synchronized (this) {
+                if (frames.size() >= count) return true;
+                this.expected = count;
+                this.latch = latch = new CountDownLatch(1);
+            }
+            return latch.await(time, unit);
+        }
+
+        int size() {
+            return frames.size();
+        }
+
+        byte[] get(int index) {
+            return frames.get(index);
+        }
+
+        String getString(int index) {
+            return new String(frames.get(index), ASCII);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package sm.peripheral;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RingBufferTest {
+
+    @Test
+    public void readsDataWrappingAroundTheEnd() {
+        RingBuffer buffer = new RingBuffer(8, 8);
+        assertTrue(buffer.write(new byte[]{1, 2, 3, 4, 5, 6}, 0, 6));
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, buffer.read(4));
+        assertTrue(buffer.write(new byte[]{7, 8, 9, 10, 11}, 0, 5));
+        assertEquals(7, buffer.size());
+        assertEquals(8, buffer.get(3));
+        assertEquals(4, buffer.indexOf(new byte[]{9, 10}, 0));
+        assertEquals(-1, buffer.indexOf(new byte[]{11, 5}, 0));
+        assertArrayEquals(new byte[]{5, 6, 7, 8, 9, 10, 11}, buffer.read(7));
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void growsWhileWrappedKeepingOrder() {
+        RingBuffer buffer = new RingBuffer(4, 64);
+        buffer.write(new byte[]{1, 2, 3}, 0, 3);
+        buffer.skip(2);
+        buffer.write(new byte[]{4, 5, 6}, 0, 3);
+        buffer.write(new byte[]{7, 8, 9, 10, 11, 12}, 0, 6);
+        assertArrayEquals(new byte[]{3, 4, 5, 6, 7, 8, 9, 10, 11, 12}, buffer.read(10));
+    }
+
+    @Test
+    public void rejectsWritesBeyondMaxCapacity() {
+        RingBuffer buffer = new RingBuffer(4, 8);
+        assertTrue(buffer.write(new byte[6], 0, 6));
+        assertFalse(buffer.write(new byte[3], 0, 3));
+        assertEquals(6, buffer.size());
+        buffer.clear();
+        assertEquals(0, buffer.size());
+        assertTrue(buffer.write(new byte[8], 0, 8));
+    }
+}